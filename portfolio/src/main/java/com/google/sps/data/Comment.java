@@ -0,0 +1,113 @@
+package com.google.sps.data;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.functionality.CommentEnricher;
+import com.google.sps.functionality.TextTranslator;
+import com.google.sps.servlets.AuthenticationServlet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+  * Represents a single comment. Comments are shared between requests by the
+  * comment cache, so they should not be modified once created.
+  */
+public class Comment {
+  public final String text;
+  public final String username;
+  public final long time;
+  public final long id;
+  public final String userId;
+  public final String email;
+  public final String sentiment;
+  public final String topic;
+
+  public Comment(String text, String username, long time, long id,
+    String userId, String email, String sentiment, String topic) {
+    this.text = text;
+    this.username = username;
+    this.time = time;
+    this.id = id;
+    this.userId = userId;
+    this.email = email;
+    this.sentiment = sentiment;
+    this.topic = topic;
+  }
+
+  /**
+    * Returns an entity representing this comment.
+    * This should only be called once per comment, for the
+    * purpose of putting this comment into the database. The entity holds
+    * the raw comment text and is marked as pending, as its sentiment, topic
+    * and entity links are computed in the background once it is stored.
+    */
+  public Entity toEntity() {
+    Entity commentEntity = new Entity("Comment");
+    commentEntity.setProperty(EntityProperties.COMMENT_TIMESTAMP, time);
+    commentEntity.setProperty(EntityProperties.USER_ID, userId);
+    commentEntity.setProperty(EntityProperties.USER_EMAIL, email);
+    CommentEnricher.setUnenrichedProperties(commentEntity, text);
+    return commentEntity;
+  }
+
+  /**
+    * Returns comments representing these entities, in the same order. The
+    * usernames of all of their authors are loaded in a single batch rather 
+    * than once per comment.
+    */
+  public static List<Comment> fromEntities(List<Entity> entities) {
+    Map<String, String> usernames = AuthenticationServlet.getUserNames(
+      entities.stream()
+        .map(e -> (String) e.getProperty(EntityProperties.USER_ID))
+        .collect(Collectors.toList()));
+    return entities.stream()
+      .map(e -> fromEntity(e, 
+        usernames.get((String) e.getProperty(EntityProperties.USER_ID))))
+      .collect(Collectors.toList());
+  }
+
+  /**
+    * Returns a comment representing this entity, written by the user
+    * currently named `username`.
+    */
+  public static Comment fromEntity(Entity e, String username) {
+    return new Comment(
+      (String) e.getProperty(EntityProperties.COMMENT_TEXT),
+      username,
+      (long) e.getProperty(EntityProperties.COMMENT_TIMESTAMP),
+      e.getKey().getId(),
+      (String) e.getProperty(EntityProperties.USER_ID),
+      (String) e.getProperty(EntityProperties.USER_EMAIL),
+      (String) e.getProperty(EntityProperties.COMMENT_SENTIMENT),
+      (String) e.getProperty(EntityProperties.COMMENT_TOPIC));
+  }
+
+  /**
+    * Returns copies of `comments`, in the same order, but with the comment 
+    * text translated to the language corresponding to `languageCode`. All 
+    * of the comments are translated together in a single batch.
+    */
+  public static List<Comment> translateComments(List<Comment> comments,
+    String languageCode) {
+    List<String> translatedTexts = TextTranslator.translateAll(
+      comments.stream()
+        .map(comment -> comment.text)
+        .collect(Collectors.toList()),
+      languageCode);
+    List<Comment> translatedComments = new ArrayList<Comment>();
+    for (int i = 0; i < comments.size(); i++) {
+      Comment comment = comments.get(i);
+      translatedComments.add(new Comment(translatedTexts.get(i), 
+        comment.username, comment.time, comment.id, comment.userId, 
+        comment.email, comment.sentiment, comment.topic));
+    }
+    return translatedComments;
+  }
+
+  /** Returns a copy of this comment, but written by `newUserName`. */
+  public Comment withUserName(String newUserName) {
+    return new Comment(text, newUserName, time, id, userId, email,
+      sentiment, topic);
+  }
+}
@@ -0,0 +1,80 @@
+package com.google.sps.data;
+
+import com.google.common.base.Splitter;
+import java.util.List;
+
+/**
+  * The position of a comment in the comment section, where comments are
+  * ordered newest first and comments posted at the same time are ordered by
+  * id, matching the order in which datastore returns them.
+  */
+public final class CommentPosition implements Comparable<CommentPosition> {
+  /**
+    * Prefix of page tokens that encode a position. It cannot appear in a
+    * web-safe datastore cursor, so the two kinds of token cannot be confused.
+    */
+  private static final String TOKEN_PREFIX = "~";
+
+  public final long time;
+  public final long id;
+
+  public CommentPosition(long time, long id) {
+    this.time = time;
+    this.id = id;
+  }
+
+  /** Returns the position of `comment`. */
+  public static CommentPosition of(Comment comment) {
+    return new CommentPosition(comment.time, comment.id);
+  }
+
+  /**
+    * Returns the position encoded by `pageToken`, or null if `pageToken`
+    * does not encode a position.
+    */
+  public static CommentPosition decode(String pageToken) {
+    if (pageToken == null || !pageToken.startsWith(TOKEN_PREFIX)) {
+      return null;
+    }
+    List<String> parts = Splitter.on('.')
+      .splitToList(pageToken.substring(TOKEN_PREFIX.length()));
+    if (parts.size() != 2) {
+      return null;
+    }
+    try {
+      return new CommentPosition(Long.parseLong(parts.get(0)),
+        Long.parseLong(parts.get(1)));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** Returns this position as an opaque page token. */
+  public String encode() {
+    return TOKEN_PREFIX + time + "." + id;
+  }
+
+  /** Returns true if `comment` is displayed after this position. */
+  public boolean precedes(Comment comment) {
+    return compareTo(of(comment)) < 0;
+  }
+
+  @Override
+  public int compareTo(CommentPosition other) {
+    if (time != other.time) {
+      return Long.compare(other.time, time);
+    }
+    return Long.compare(id, other.id);
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof CommentPosition
+      && compareTo((CommentPosition) other) == 0;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(time) * 31 + Long.hashCode(id);
+  }
+}
@@ -0,0 +1,90 @@
+package com.google.sps.data;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+
+/**
+  * Converts comments to and from JSON field by field, rather than through
+  * reflection, so that pages of comments can be written straight to the
+  * response. Produces the same JSON object Gson's default reflective
+  * adapter would.
+  */
+public class CommentTypeAdapter extends TypeAdapter<Comment> {
+
+  @Override
+  public void write(JsonWriter out, Comment comment) throws IOException {
+    if (comment == null) {
+      out.nullValue();
+      return;
+    }
+    out.beginObject();
+    out.name("text").value(comment.text);
+    out.name("username").value(comment.username);
+    out.name("time").value(comment.time);
+    out.name("id").value(comment.id);
+    out.name("userId").value(comment.userId);
+    out.name("email").value(comment.email);
+    out.name("sentiment").value(comment.sentiment);
+    out.name("topic").value(comment.topic);
+    out.endObject();
+  }
+
+  @Override
+  public Comment read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    String text = null;
+    String username = null;
+    long time = 0;
+    long id = 0;
+    String userId = null;
+    String email = null;
+    String sentiment = null;
+    String topic = null;
+
+    in.beginObject();
+    while (in.hasNext()) {
+      String name = in.nextName();
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        continue;
+      }
+      switch (name) {
+        case "text":
+          text = in.nextString();
+          break;
+        case "username":
+          username = in.nextString();
+          break;
+        case "time":
+          time = in.nextLong();
+          break;
+        case "id":
+          id = in.nextLong();
+          break;
+        case "userId":
+          userId = in.nextString();
+          break;
+        case "email":
+          email = in.nextString();
+          break;
+        case "sentiment":
+          sentiment = in.nextString();
+          break;
+        case "topic":
+          topic = in.nextString();
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return new Comment(text, username, time, id, userId, email, sentiment,
+      topic);
+  }
+}
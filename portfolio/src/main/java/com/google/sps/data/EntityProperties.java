@@ -25,11 +25,86 @@ public final class EntityProperties {
     */
   public static final String COMMENT_TOPIC = "topic";
 
+  /** 
+    * The property representing whether the sentiment, topic and entity links
+    * of the comment have been computed yet.
+    */
+  public static final String ENRICHMENT_STATUS = "enrichmentStatus";
+
+  /** 
+    * The property marking a deleted comment whose entity is a tombstone,
+    * waiting to be removed by the compactor.
+    */
+  public static final String COMMENT_DELETED = "deleted";
+
+  /** 
+    * The property representing the version of the comment store a comment
+    * was deleted at.
+    */
+  public static final String COMMENT_DELETED_VERSION = "deletedVersion";
+
   /* User Properties: */
 
   /** The property representing the username of this user */
   public static final String USERNAME = "username";
 
+  /* Translation Properties: */
+
+  /** The property representing the translated text of a cached translation. */
+  public static final String TRANSLATED_TEXT = "translatedText";
+
+  /** The property representing the language code a text was translated to. */
+  public static final String TRANSLATION_LANGUAGE = "language";
+
+  /** 
+    * The property representing the time when the translation was cached (in 
+    * milliseconds since the epoch).
+    */
+  public static final String TRANSLATION_TIMESTAMP = "time";
+
+  /* Text Analysis Properties: */
+
+  /** The property representing the sentiment of an analyzed text. */
+  public static final String ANALYSIS_SENTIMENT = "sentiment";
+
+  /** The property representing the topic of an analyzed text. */
+  public static final String ANALYSIS_TOPIC = "topic";
+
+  /** 
+    * The property representing the serialized named entities of an analyzed
+    * text, along with their mentions.
+    */
+  public static final String ANALYSIS_ENTITIES = "entities";
+
+  /** 
+    * The property representing the time after which a cached analysis is
+    * no longer used (in milliseconds since the epoch).
+    */
+  public static final String ANALYSIS_EXPIRATION = "expiration";
+
+  /* DeleteJob Properties: */
+
+  /** The property representing whether a bulk delete job is running. */
+  public static final String JOB_STATUS = "status";
+
+  /** 
+    * The property representing the web-safe cursor after the last comment
+    * a bulk delete job has deleted.
+    */
+  public static final String JOB_CURSOR = "cursor";
+
+  /** The property representing how many comments a job has deleted. */
+  public static final String JOB_DELETED_COUNT = "deletedCount";
+
+  /** The property representing how many batches a job has deleted. */
+  public static final String JOB_BATCH_COUNT = "batchCount";
+
+  /** The property representing when a job was started, in milliseconds. */
+  public static final String JOB_CREATED_TIME = "createdTime";
+
+  /** The property representing when a job last made progress. */
+  public static final String JOB_UPDATED_TIME = "updatedTime";
+
   /* Both User and Comment properties: */
 
   /** 
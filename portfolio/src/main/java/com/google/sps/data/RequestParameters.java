@@ -15,15 +15,14 @@ public final class RequestParameters {
 
   /* Request Parameters for DataServlet GET: */
 
-  /** The user's request to flip to the next page, previous page, or stay on 
-    * the same page.  */
-  public static final String PAGE_ACTION = "pageAction";
-
   /** The user's search, querying the text contents and author names in the 
     * comment section. */
   public static final String SEARCH_QUERY = "search";
 
-  /** The index of the first comment currently being displayed on the page. */
+  /** 
+    * The opaque token marking the first comment of the page to display, or 
+    * the empty string for the first page.
+    */
   public static final String PAGE_TOKEN = "pageToken";
 
   /** The user's selection of how many comments to display per page. */
@@ -0,0 +1,211 @@
+package com.google.sps.functionality;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultList;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.sps.configuration.Flags;
+import com.google.sps.data.EntityProperties;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+  * Deletes comments in bulk in the background, so that deleting a large
+  * number of comments neither runs past the request deadline nor competes
+  * with serving traffic. Each job is a "DeleteJob" entity recording its
+  * progress, and a chain of tasks on the deletion queue, each of which
+  * deletes a single batch of comments, checkpoints the cursor after it,
+  * and adds the next task. The checkpoint and the next task are committed
+  * in the same transaction, so a job resumes where it left off after a
+  * failure or an instance restart. Tasks are spaced out so that comments
+  * are deleted no faster than the rate set by the system property
+  * `DELETES_PER_SECOND_PROPERTY`.
+  */
+public class BulkDeleteJob {
+  /** Whether a job is still deleting comments. */
+  public static enum JobStatus {
+    RUNNING,
+    DONE,
+  }
+
+  /** The URL deletion tasks are sent to. */
+  public static final String DELETION_URL =
+    Flags.IS_REAL_SERVER ? "/delete-jobs" : "/fakedelete-jobs";
+
+  /** The request parameter holding the id of the job. */
+  public static final String JOB_ID_PARAMETER = "jobId";
+
+  /**
+    * The request parameter holding the number of batches the job had
+    * deleted when the task was added, so that a task retried after its
+    * successor was added does nothing.
+    */
+  public static final String BATCH_PARAMETER = "batch";
+
+  /** The system property setting how many comments are deleted a second. */
+  public static final String DELETES_PER_SECOND_PROPERTY =
+    "com.google.sps.deletesPerSecond";
+
+  private static final int DEFAULT_DELETES_PER_SECOND = 100;
+
+  /** The queue deletion tasks are added to, configured in queue.xml. */
+  private static final String QUEUE_NAME = "deletion";
+
+  /** The number of comments a task deletes, within datastore's limit. */
+  private static final int BATCH_SIZE = 500;
+
+  /**
+    * Starts a job deleting every comment written by the user with id
+    * `userId`, or every comment if `userId` is null, and returns its id.
+    */
+  public static long start(String userId) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    long now = System.currentTimeMillis();
+    Entity job = new Entity("DeleteJob");
+    job.setUnindexedProperty(EntityProperties.USER_ID, userId);
+    job.setUnindexedProperty(EntityProperties.JOB_STATUS,
+      JobStatus.RUNNING.name());
+    job.setUnindexedProperty(EntityProperties.JOB_CURSOR, "");
+    job.setUnindexedProperty(EntityProperties.JOB_DELETED_COUNT, 0L);
+    job.setUnindexedProperty(EntityProperties.JOB_BATCH_COUNT, 0L);
+    job.setUnindexedProperty(EntityProperties.JOB_CREATED_TIME, now);
+    job.setUnindexedProperty(EntityProperties.JOB_UPDATED_TIME, now);
+
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      datastore.put(transaction, job);
+      addTask(transaction, job.getKey().getId(), 0, 0);
+      transaction.commit();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+    return job.getKey().getId();
+  }
+
+  /**
+    * Deletes the next batch of comments of the job with id `jobId`, if it
+    * is still running and has deleted `batch` batches so far, removes them
+    * from the comments held in memory, and checkpoints the job along with
+    * adding the task for the following batch. The job is checked again in
+    * the checkpoint's transaction, so only one delivery of a task ever
+    * continues the job.
+    */
+  public static void runBatch(long jobId, long batch) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Entity job = getJob(jobId);
+    if (job == null || !isRunning(job)
+      || (long) job.getProperty(EntityProperties.JOB_BATCH_COUNT) != batch) {
+      return;
+    }
+
+    String userId = (String) job.getProperty(EntityProperties.USER_ID);
+    Query query = new Query("Comment").setKeysOnly();
+    if (userId != null) {
+      query.setFilter(new Query.FilterPredicate(
+        EntityProperties.USER_ID, Query.FilterOperator.EQUAL, userId));
+    }
+    FetchOptions fetchOptions = FetchOptions.Builder
+      .withLimit(BATCH_SIZE)
+      .chunkSize(BATCH_SIZE);
+    String cursor = (String) job.getProperty(EntityProperties.JOB_CURSOR);
+    if (!cursor.isEmpty()) {
+      fetchOptions.startCursor(Cursor.fromWebSafeString(cursor));
+    }
+    QueryResultList<Entity> results =
+      datastore.prepare(query).asQueryResultList(fetchOptions);
+    List<Key> keys = results.stream()
+      .map(Entity::getKey)
+      .collect(Collectors.toList());
+    datastore.delete(keys);
+    for (Key key : keys) {
+      CommentCache.COMMENT_CACHE_INSTANCE.remove(key.getId());
+      CommentSearchIndex.SEARCH_INDEX_INSTANCE.remove(key.getId());
+    }
+    if (!keys.isEmpty()) {
+      CommentStoreVersion.bump();
+    }
+
+    boolean isDone = keys.size() < BATCH_SIZE;
+    Transaction transaction = datastore.beginTransaction();
+    try {
+      // The job is read again within the transaction, so that a duplicate
+      // delivery of this task, or a job stopped in the meantime, neither
+      // adds a second successor nor marks the job as running again.
+      Entity currentJob = datastore.get(transaction, job.getKey());
+      if (!isRunning(currentJob) || (long) currentJob.getProperty(
+        EntityProperties.JOB_BATCH_COUNT) != batch) {
+        return;
+      }
+      currentJob.setUnindexedProperty(EntityProperties.JOB_CURSOR,
+        results.getCursor().toWebSafeString());
+      currentJob.setUnindexedProperty(EntityProperties.JOB_DELETED_COUNT,
+        (long) currentJob.getProperty(EntityProperties.JOB_DELETED_COUNT)
+          + keys.size());
+      currentJob.setUnindexedProperty(EntityProperties.JOB_BATCH_COUNT,
+        batch + 1);
+      currentJob.setUnindexedProperty(EntityProperties.JOB_UPDATED_TIME,
+        System.currentTimeMillis());
+      if (isDone) {
+        currentJob.setUnindexedProperty(EntityProperties.JOB_STATUS,
+          JobStatus.DONE.name());
+      }
+      datastore.put(transaction, currentJob);
+      if (!isDone) {
+        addTask(transaction, jobId, batch + 1,
+          keys.size() * 1000L / getDeletesPerSecond());
+      }
+      transaction.commit();
+    } catch (EntityNotFoundException e) {
+      // The job has been removed, so it is not continued.
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+  }
+
+  /** Returns the job with id `jobId`, or null if there is none. */
+  public static Entity getJob(long jobId) {
+    try {
+      return DatastoreServiceFactory.getDatastoreService()
+        .get(KeyFactory.createKey("DeleteJob", jobId));
+    } catch (EntityNotFoundException e) {
+      return null;
+    }
+  }
+
+  /** Returns true if `job` is still deleting comments. */
+  public static boolean isRunning(Entity job) {
+    return JobStatus.RUNNING.name().equals(
+      job.getProperty(EntityProperties.JOB_STATUS));
+  }
+
+  /**
+    * Adds the task deleting the next batch of the job with id `jobId`, as
+    * part of `transaction`, to run after `delayMillis`.
+    */
+  private static void addTask(Transaction transaction, long jobId,
+    long batch, long delayMillis) {
+    QueueFactory.getQueue(QUEUE_NAME).add(transaction, TaskOptions.Builder
+      .withUrl(DELETION_URL)
+      .param(JOB_ID_PARAMETER, Long.toString(jobId))
+      .param(BATCH_PARAMETER, Long.toString(batch))
+      .countdownMillis(delayMillis));
+  }
+
+  private static int getDeletesPerSecond() {
+    return Math.max(1, Integer.getInteger(DELETES_PER_SECOND_PROPERTY,
+      DEFAULT_DELETES_PER_SECOND));
+  }
+}
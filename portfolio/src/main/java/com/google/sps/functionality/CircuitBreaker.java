@@ -0,0 +1,69 @@
+package com.google.sps.functionality;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  * Stops calls to a failing service for a while, so that callers fall back
+  * right away instead of waiting on calls that are likely to fail. The
+  * breaker opens after a number of consecutive failures. Once it has been
+  * open for a cool-down period, a single trial call is let through; the
+  * breaker closes if that call succeeds and stays open if it fails.
+  */
+public class CircuitBreaker {
+  private final int failureThreshold;
+  private final long coolDownMillis;
+
+  private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+  /** When the breaker last opened, or 0 if it is closed. */
+  private final AtomicLong openedAt = new AtomicLong();
+
+  private final AtomicLong rejectedCount = new AtomicLong();
+
+  public CircuitBreaker(int failureThreshold, long coolDownMillis) {
+    this.failureThreshold = failureThreshold;
+    this.coolDownMillis = coolDownMillis;
+  }
+
+  /**
+    * Returns true if a call may be made. While the breaker is open this
+    * returns false, except for one trial call per cool-down period.
+    */
+  public boolean allowRequest() {
+    long opened = openedAt.get();
+    if (opened == 0) {
+      return true;
+    }
+    long now = System.currentTimeMillis();
+    if (now - opened >= coolDownMillis && openedAt.compareAndSet(opened, now)) {
+      // Restarting the cool-down lets only this call through as a trial.
+      return true;
+    }
+    rejectedCount.incrementAndGet();
+    return false;
+  }
+
+  /** Records that a call succeeded, closing the breaker. */
+  public void recordSuccess() {
+    consecutiveFailures.set(0);
+    openedAt.set(0);
+  }
+
+  /** Records that a call failed, opening the breaker if it has failed too often. */
+  public void recordFailure() {
+    if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+      openedAt.compareAndSet(0, System.currentTimeMillis());
+    }
+  }
+
+  /** Returns true if calls are currently being stopped. */
+  public boolean isOpen() {
+    return openedAt.get() != 0;
+  }
+
+  /** Returns the number of calls stopped by the breaker. */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+}
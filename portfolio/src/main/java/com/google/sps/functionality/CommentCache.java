@@ -0,0 +1,200 @@
+package com.google.sps.functionality;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentPosition;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  * A bounded, in-memory cache of the newest comments, ordered newest first.
+  * The cache always holds a contiguous window of the comment section
+  * starting from the newest comment, so any page that lies within that
+  * window can be served without reading datastore. It is kept up to date by
+  * the servlets that write comments, and is reloaded once it is older than
+  * its maximum age so that writes made by other instances are picked up.
+  */
+public class CommentCache {
+  /** The default number of comments held by the cache. */
+  public static final int DEFAULT_CAPACITY = 1000;
+
+  /** The default time after which the cache is reloaded from datastore. */
+  public static final long DEFAULT_MAX_AGE_MILLIS = 60 * 1000;
+
+  public static final CommentCache COMMENT_CACHE_INSTANCE =
+    new CommentCache(DEFAULT_CAPACITY, DEFAULT_MAX_AGE_MILLIS);
+
+  private final int capacity;
+  private final long maxAgeMillis;
+  private final ConcurrentSkipListMap<CommentPosition, Comment> comments =
+    new ConcurrentSkipListMap<CommentPosition, Comment>();
+  private final Map<Long, CommentPosition> positionsById =
+    new ConcurrentHashMap<Long, CommentPosition>();
+  private final Map<String, String> usernames =
+    new ConcurrentHashMap<String, String>();
+
+  private volatile boolean isLoaded = false;
+  private volatile boolean isComplete = false;
+  private volatile long loadTime = 0;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+  private final AtomicLong evictionCount = new AtomicLong();
+
+  public CommentCache(int capacity, long maxAgeMillis) {
+    this.capacity = capacity;
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  /** Returns the maximum number of comments held by the cache. */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+    * Returns true if the cache has never been loaded, or was loaded longer
+    * ago than its maximum age.
+    */
+  public boolean needsReload() {
+    return !isLoaded || System.currentTimeMillis() - loadTime > maxAgeMillis;
+  }
+
+  /**
+    * Replaces the contents of the cache with `newestComments`, which must be
+    * the newest comments in datastore. At most `capacity` of them are kept.
+    * @param isComplete Whether `newestComments` contains every comment in
+        datastore.
+    */
+  public synchronized void reload(List<Comment> newestComments,
+    boolean isComplete) {
+    comments.clear();
+    positionsById.clear();
+    usernames.clear();
+    this.isComplete = isComplete;
+    newestComments.forEach(this::insert);
+    isLoaded = true;
+    loadTime = System.currentTimeMillis();
+  }
+
+  /** Empties the cache, so that it is reloaded on the next read. */
+  public synchronized void invalidate() {
+    comments.clear();
+    positionsById.clear();
+    usernames.clear();
+    isLoaded = false;
+    isComplete = false;
+  }
+
+  /** Adds a newly posted comment to the cache. */
+  public synchronized void add(Comment comment) {
+    if (!isLoaded) {
+      // The comment will be read from datastore when the cache is loaded.
+      return;
+    }
+    if (!isComplete && comments.size() > 0
+      && comments.lastKey().precedes(comment)) {
+      // The comment is older than every cached comment, so it lies outside
+      // of the window the cache holds.
+      return;
+    }
+    insert(comment);
+  }
+
+  /**
+    * Replaces the cached copy of a comment that has changed, such as once it
+    * has been enriched. Comments that are not cached are ignored.
+    */
+  public synchronized void replace(Comment comment) {
+    if (positionsById.containsKey(comment.id)) {
+      comments.put(positionsById.get(comment.id), comment);
+    }
+  }
+
+  /** Removes the comment with id `commentId` from the cache. */
+  public synchronized void remove(long commentId) {
+    CommentPosition position = positionsById.remove(commentId);
+    if (position != null) {
+      comments.remove(position);
+    }
+  }
+
+  /**
+    * Updates the username displayed on the cached comments of the user
+    * `userId` to be `newUserName`.
+    */
+  public synchronized void updateUserName(String userId, String newUserName) {
+    String oldUserName = usernames.get(userId);
+    if (oldUserName == null || oldUserName.equals(newUserName)) {
+      return;
+    }
+    usernames.put(userId, newUserName);
+    comments.replaceAll((position, comment) -> userId.equals(comment.userId)
+      ? comment.withUserName(newUserName) : comment);
+  }
+
+  /**
+    * Returns the cached comments displayed after `position`, newest first,
+    * or all cached comments if `position` is null.
+    */
+  public Iterator<Comment> getCommentsAfter(CommentPosition position) {
+    if (position == null) {
+      return comments.values().iterator();
+    }
+    return comments.tailMap(position, false).values().iterator();
+  }
+
+  /**
+    * Returns true if the cache holds every comment in datastore, so that
+    * reaching the end of the cache means reaching the end of the comments.
+    */
+  public boolean isComplete() {
+    return isComplete;
+  }
+
+  /** Records a read that was served entirely by the cache. */
+  public void recordHit() {
+    hitCount.incrementAndGet();
+  }
+
+  /** Records a read that had to fall back to datastore. */
+  public void recordMiss() {
+    missCount.incrementAndGet();
+  }
+
+  /** Returns the number of comments currently held by the cache. */
+  public int size() {
+    return comments.size();
+  }
+
+  /** Returns the number of reads that were served by the cache. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of reads that fell back to datastore. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Returns the number of comments evicted to stay within capacity. */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /** Inserts `comment`, evicting the oldest comment if over capacity. */
+  private void insert(Comment comment) {
+    CommentPosition position = CommentPosition.of(comment);
+    comments.put(position, comment);
+    positionsById.put(comment.id, position);
+    usernames.put(comment.userId, comment.username);
+    while (comments.size() > capacity) {
+      Map.Entry<CommentPosition, Comment> oldest = comments.pollLastEntry();
+      positionsById.remove(oldest.getValue().id);
+      evictionCount.incrementAndGet();
+      isComplete = false;
+    }
+  }
+}
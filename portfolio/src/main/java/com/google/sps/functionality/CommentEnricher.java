@@ -0,0 +1,189 @@
+package com.google.sps.functionality;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.collect.Lists;
+import com.google.sps.configuration.Flags;
+import com.google.sps.data.EntityProperties;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+  * Computes the sentiment, topic and entity links of comments in the
+  * background, after they have been stored. Comments are stored with their
+  * raw text, a neutral sentiment and no topic, and marked as pending. A
+  * task on the enrichment queue then enriches exactly the comments it
+  * names, and the queue retries tasks that fail. While the API cannot be
+  * used, comments are enriched with a local sentiment only and marked as
+  * such. Comments left pending, as when their task could not be added,
+  * and locally enriched comments, once the API is available again, are
+  * queued again by a cron job.
+  */
+public class CommentEnricher {
+  /** Whether a comment's sentiment, topic and entity links are computed. */
+  public static enum EnrichmentStatus {
+    PENDING,
+    /** Only the sentiment is computed, locally, until the API is used. */
+    LOCAL,
+    DONE,
+    FAILED,
+  }
+
+  /** The URL enrichment tasks are sent to. */
+  public static final String ENRICHMENT_URL =
+    Flags.IS_REAL_SERVER ? "/enrich" : "/fakeenrich";
+
+  /**
+    * The request parameter holding the ids of the comments to enrich,
+    * repeated once per comment.
+    */
+  public static final String COMMENT_ID_PARAMETER = "id";
+
+  /** The queue enrichment tasks are added to, configured in queue.xml. */
+  private static final String QUEUE_NAME = "enrichment";
+
+  /**
+    * How long a task waits before running, so that a comment is usually
+    * displayed once before it is enriched.
+    */
+  private static final long TASK_DELAY_MILLIS = 1000;
+
+  /** The most tasks the task queue accepts in a single call. */
+  private static final int MAX_TASKS_PER_ADD = 100;
+
+  /**
+    * The largest number of comments a single task enriches. They must fit
+    * in one cross-group transaction, which spans at most 25 comments.
+    */
+  public static final int BATCH_SIZE = 20;
+
+  /**
+    * How long ago a comment must have been posted before the cron job
+    * queues it again, so that comments whose task has yet to run are left
+    * alone.
+    */
+  private static final long STALE_PENDING_MILLIS = 30 * 60 * 1000;
+
+  /**
+    * Sets the properties of a newly posted comment whose text is
+    * `text` so that it can be displayed before it is enriched, and marks it
+    * as pending.
+    */
+  public static void setUnenrichedProperties(Entity commentEntity,
+    String text) {
+    commentEntity.setProperty(EntityProperties.COMMENT_TEXT, text);
+    commentEntity.setProperty(EntityProperties.COMMENT_SENTIMENT,
+      SentimentAnalyzer.SentimentType.NEUTRAL.name());
+    commentEntity.setProperty(EntityProperties.COMMENT_TOPIC, "");
+    commentEntity.setProperty(EntityProperties.ENRICHMENT_STATUS,
+      EnrichmentStatus.PENDING.name());
+  }
+
+  /** Adds a task to enrich the comment with id `commentId`. */
+  public static void enqueue(long commentId) {
+    QueueFactory.getQueue(QUEUE_NAME).add(TaskOptions.Builder
+      .withUrl(ENRICHMENT_URL)
+      .param(COMMENT_ID_PARAMETER, Long.toString(commentId))
+      .countdownMillis(TASK_DELAY_MILLIS));
+  }
+
+  /**
+    * Adds one task per `BATCH_SIZE` of the comments with ids `commentIds`,
+    * each naming every comment it enriches. The tasks are added in batches
+    * too.
+    */
+  public static void enqueueAll(List<Long> commentIds) {
+    List<TaskOptions> tasks = new ArrayList<TaskOptions>();
+    for (List<Long> idBatch : Lists.partition(commentIds, BATCH_SIZE)) {
+      TaskOptions task = TaskOptions.Builder
+        .withUrl(ENRICHMENT_URL)
+        .countdownMillis(TASK_DELAY_MILLIS);
+      for (long id : idBatch) {
+        task.param(COMMENT_ID_PARAMETER, Long.toString(id));
+      }
+      tasks.add(task);
+    }
+    Queue queue = QueueFactory.getQueue(QUEUE_NAME);
+    for (List<TaskOptions> taskBatch
+      : Lists.partition(tasks, MAX_TASKS_PER_ADD)) {
+      queue.add(taskBatch);
+    }
+  }
+
+  /**
+    * Returns the ids of up to `limit` comments that have been waiting to be
+    * enriched for longer than a task takes to run, including those only
+    * enriched locally if `includeLocal` is true.
+    */
+  public static List<Long> getStaleCommentIds(int limit,
+    boolean includeLocal) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    long cutoff = System.currentTimeMillis() - STALE_PENDING_MILLIS;
+    Query query = new Query("Comment").setFilter(includeLocal
+      ? new Query.FilterPredicate(EntityProperties.ENRICHMENT_STATUS,
+        Query.FilterOperator.IN, Arrays.asList(
+          EnrichmentStatus.PENDING.name(), EnrichmentStatus.LOCAL.name()))
+      : new Query.FilterPredicate(EntityProperties.ENRICHMENT_STATUS,
+        Query.FilterOperator.EQUAL, EnrichmentStatus.PENDING.name()));
+    // Filtering on the timestamp in memory avoids a composite index.
+    return datastore.prepare(query)
+      .asList(FetchOptions.Builder.withLimit(limit))
+      .stream()
+      .filter(comment -> (long) comment.getProperty(
+        EntityProperties.COMMENT_TIMESTAMP) < cutoff)
+      .map(comment -> comment.getKey().getId())
+      .collect(Collectors.toList());
+  }
+
+  /**
+    * Returns true if `commentEntity` is waiting to be enriched, or has only
+    * been enriched locally.
+    */
+  public static boolean needsEnrichment(Entity commentEntity) {
+    Object status =
+      commentEntity.getProperty(EntityProperties.ENRICHMENT_STATUS);
+    return EnrichmentStatus.PENDING.name().equals(status)
+      || EnrichmentStatus.LOCAL.name().equals(status);
+  }
+
+  /**
+    * Computes the sentiment, topic and entity links of `commentEntity` from
+    * its raw text, in a single call to the Natural Language API made with
+    * the shared client, and marks it as enriched. While the API cannot be
+    * used, only the sentiment is computed, locally, and it is marked as
+    * such so that it is enriched again later. Throws if the call fails,
+    * leaving `commentEntity` unchanged.
+    */
+  public static void enrich(Entity commentEntity) {
+    String text = (String) commentEntity.getProperty(
+      EntityProperties.COMMENT_TEXT);
+    SentimentAnalyzer.TextAnalysis analysis = LanguageServiceManager
+      .LANGUAGE_SERVICE_INSTANCE.analyze(text);
+
+    commentEntity.setProperty(EntityProperties.COMMENT_SENTIMENT,
+      analysis.sentiment.name());
+    commentEntity.setProperty(EntityProperties.COMMENT_TOPIC, analysis.topic);
+    commentEntity.setProperty(EntityProperties.COMMENT_TEXT,
+      analysis.htmlWithEntityLinks);
+    commentEntity.setProperty(EntityProperties.ENRICHMENT_STATUS,
+      analysis.isLocal
+        ? EnrichmentStatus.LOCAL.name() : EnrichmentStatus.DONE.name());
+  }
+
+  /**
+    * Gives up on enriching `commentEntity`, which keeps its raw text,
+    * neutral sentiment and empty topic.
+    */
+  public static void markFailed(Entity commentEntity) {
+    commentEntity.setProperty(EntityProperties.ENRICHMENT_STATUS,
+      EnrichmentStatus.FAILED.name());
+  }
+}
@@ -0,0 +1,299 @@
+package com.google.sps.functionality;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentPosition;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+
+/**
+  * An in-memory inverted index over the text, author name, email and topic
+  * of every comment, used to answer searches without scanning every comment.
+  * Each comment is indexed under the whitespace-separated tokens and the
+  * three-character substrings (trigrams) of those fields. Every posting list
+  * is kept in the order comments are displayed, newest first, so a page of
+  * results can be read straight off the posting lists. Searches still match
+  * any substring: trigrams narrow the candidates, which are then checked
+  * against the query.
+  */
+public class CommentSearchIndex {
+  /** The length of the substrings comments are indexed under. */
+  private static final int GRAM_LENGTH = 3;
+
+  /** The default time after which the index is rebuilt from datastore. */
+  public static final long DEFAULT_MAX_AGE_MILLIS = 10 * 60 * 1000;
+
+  public static final CommentSearchIndex SEARCH_INDEX_INSTANCE =
+    new CommentSearchIndex(DEFAULT_MAX_AGE_MILLIS);
+
+  private final long maxAgeMillis;
+  private final ConcurrentSkipListMap<CommentPosition, Comment> comments =
+    new ConcurrentSkipListMap<CommentPosition, Comment>();
+  private final Map<Long, CommentPosition> positionsById =
+    new ConcurrentHashMap<Long, CommentPosition>();
+  private final Map<String, Set<Long>> idsByUser =
+    new ConcurrentHashMap<String, Set<Long>>();
+  private final Map<String, NavigableSet<CommentPosition>> tokenPostings =
+    new ConcurrentHashMap<String, NavigableSet<CommentPosition>>();
+  private final Map<String, NavigableSet<CommentPosition>> gramPostings =
+    new ConcurrentHashMap<String, NavigableSet<CommentPosition>>();
+
+  private volatile boolean isBuilt = false;
+  private volatile long buildTime = 0;
+
+  public CommentSearchIndex(long maxAgeMillis) {
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  /**
+    * Returns true if the index has never been built, or was built longer
+    * ago than its maximum age, so that writes made by other instances are
+    * picked up.
+    */
+  public boolean needsRebuild() {
+    return !isBuilt || System.currentTimeMillis() - buildTime > maxAgeMillis;
+  }
+
+  /** Returns true if the index holds every comment and can answer searches. */
+  public boolean isBuilt() {
+    return isBuilt;
+  }
+
+  /** Replaces the contents of the index with `allComments`. */
+  public synchronized void rebuild(List<Comment> allComments) {
+    clear();
+    allComments.forEach(this::index);
+    isBuilt = true;
+    buildTime = System.currentTimeMillis();
+  }
+
+  /** Empties the index, so that it is rebuilt on the next search. */
+  public synchronized void invalidate() {
+    clear();
+    isBuilt = false;
+  }
+
+  /** Adds a newly posted comment to the index. */
+  public synchronized void add(Comment comment) {
+    if (isBuilt) {
+      index(comment);
+    }
+  }
+
+  /**
+    * Reindexes a comment that has changed, such as once it has been
+    * enriched. Comments that are not indexed are ignored.
+    */
+  public synchronized void replace(Comment comment) {
+    if (positionsById.containsKey(comment.id)) {
+      remove(comment.id);
+      index(comment);
+    }
+  }
+
+  /** Removes the comment with id `commentId` from the index. */
+  public synchronized void remove(long commentId) {
+    CommentPosition position = positionsById.get(commentId);
+    if (position != null) {
+      unindex(comments.get(position));
+    }
+  }
+
+  /**
+    * Reindexes the comments of the user `userId` under their new username
+    * `newUserName`.
+    */
+  public synchronized void updateUserName(String userId, String newUserName) {
+    List<Comment> usersComments = idsByUser.getOrDefault(userId,
+      Collections.<Long>emptySet()).stream()
+      .map(id -> comments.get(positionsById.get(id)))
+      .filter(comment -> !newUserName.equals(comment.username))
+      .collect(Collectors.toList());
+    usersComments.forEach(comment -> {
+      unindex(comment);
+      index(comment.withUserName(newUserName));
+    });
+  }
+
+  /**
+    * Returns up to `limit` comments displayed after `position` (or from the
+    * newest comment if `position` is null) whose text, author name, email
+    * or topic contains `query`, newest first.
+    */
+  public List<Comment> search(String query, CommentPosition position,
+    int limit) {
+    NavigableSet<CommentPosition> candidatePostings = getCandidates(query);
+    Iterator<CommentPosition> candidates = position == null
+      ? candidatePostings.iterator()
+      : candidatePostings.tailSet(position, false).iterator();
+    List<NavigableSet<CommentPosition>> otherPostings =
+      getIntersectedPostings(query);
+
+    List<Comment> matches = new ArrayList<Comment>();
+    while (candidates.hasNext() && matches.size() < limit) {
+      CommentPosition candidate = candidates.next();
+      if (!otherPostings.stream().allMatch(
+        postings -> postings.contains(candidate))) {
+        continue;
+      }
+      Comment comment = comments.get(candidate);
+      if (comment != null && matches(comment, query)) {
+        matches.add(comment);
+      }
+    }
+    return matches;
+  }
+
+  /** Returns true if this comment's indexed fields contain `query`. */
+  public static boolean matches(Comment comment, String query) {
+    return comment.text.contains(query) ||
+      comment.username.contains(query) || comment.email.contains(query) ||
+      comment.topic.contains(query);
+  }
+
+  /**
+    * Returns the posting list to walk when searching for `query`: the
+    * shortest trigram posting list of the query, or for queries shorter
+    * than a trigram, the union of the postings of every token containing
+    * the query. Falls back to every comment when neither applies.
+    */
+  private NavigableSet<CommentPosition> getCandidates(String query) {
+    if (query.length() >= GRAM_LENGTH) {
+      return getGrams(query).stream()
+        .map(gram -> gramPostings.getOrDefault(gram,
+          new TreeSet<CommentPosition>()))
+        .min(Comparator.comparing(Set::size))
+        .get();
+    }
+    if (query.trim().equals(query) && !query.isEmpty()) {
+      NavigableSet<CommentPosition> union = new TreeSet<CommentPosition>();
+      tokenPostings.forEach((token, postings) -> {
+        if (token.contains(query)) {
+          union.addAll(postings);
+        }
+      });
+      return union;
+    }
+    return comments.keySet();
+  }
+
+  /**
+    * Returns the trigram posting lists every match must also appear in,
+    * besides the candidates returned by `getCandidates`.
+    */
+  private List<NavigableSet<CommentPosition>> getIntersectedPostings(
+    String query) {
+    if (query.length() < GRAM_LENGTH) {
+      return Collections.emptyList();
+    }
+    return getGrams(query).stream()
+      .map(gram -> gramPostings.getOrDefault(gram,
+        new TreeSet<CommentPosition>()))
+      .sorted(Comparator.comparing(Set::size))
+      .skip(1)
+      .collect(Collectors.toList());
+  }
+
+  /** Adds `comment` to every posting list it belongs in. */
+  private void index(Comment comment) {
+    CommentPosition position = CommentPosition.of(comment);
+    comments.put(position, comment);
+    positionsById.put(comment.id, position);
+    idsByUser.computeIfAbsent(comment.userId,
+      userId -> ConcurrentHashMap.newKeySet()).add(comment.id);
+    getTokens(comment).forEach(token -> tokenPostings.computeIfAbsent(token,
+      key -> new ConcurrentSkipListSet<CommentPosition>()).add(position));
+    getGrams(comment).forEach(gram -> gramPostings.computeIfAbsent(gram,
+      key -> new ConcurrentSkipListSet<CommentPosition>()).add(position));
+  }
+
+  /** Removes `comment` from every posting list it belongs in. */
+  private void unindex(Comment comment) {
+    CommentPosition position = CommentPosition.of(comment);
+    comments.remove(position);
+    positionsById.remove(comment.id);
+    Set<Long> usersIds = idsByUser.get(comment.userId);
+    if (usersIds != null) {
+      usersIds.remove(comment.id);
+    }
+    getTokens(comment).forEach(token -> removePosting(tokenPostings, token,
+      position));
+    getGrams(comment).forEach(gram -> removePosting(gramPostings, gram,
+      position));
+  }
+
+  /** Empties every posting list. */
+  private void clear() {
+    comments.clear();
+    positionsById.clear();
+    idsByUser.clear();
+    tokenPostings.clear();
+    gramPostings.clear();
+  }
+
+  /**
+    * Removes `position` from the posting list of `term`, dropping the list
+    * once it is empty.
+    */
+  private static void removePosting(
+    Map<String, NavigableSet<CommentPosition>> postings, String term,
+    CommentPosition position) {
+    NavigableSet<CommentPosition> termPostings = postings.get(term);
+    if (termPostings != null) {
+      termPostings.remove(position);
+      if (termPostings.isEmpty()) {
+        postings.remove(term);
+      }
+    }
+  }
+
+  /** Returns the searchable fields of `comment`. */
+  private static List<String> getFields(Comment comment) {
+    List<String> fields = new ArrayList<String>();
+    fields.add(comment.text);
+    fields.add(comment.username);
+    fields.add(comment.email);
+    fields.add(comment.topic);
+    return fields;
+  }
+
+  /** Returns the distinct whitespace-separated tokens of `comment`. */
+  private static Set<String> getTokens(Comment comment) {
+    Set<String> tokens = new HashSet<String>();
+    for (String field : getFields(comment)) {
+      for (String token : field.split("\\s+")) {
+        if (!token.isEmpty()) {
+          tokens.add(token);
+        }
+      }
+    }
+    return tokens;
+  }
+
+  /** Returns the distinct trigrams of the fields of `comment`. */
+  private static Set<String> getGrams(Comment comment) {
+    Set<String> grams = new HashSet<String>();
+    getFields(comment).forEach(field -> grams.addAll(getGrams(field)));
+    return grams;
+  }
+
+  /** Returns the distinct trigrams of `text`. */
+  private static Set<String> getGrams(String text) {
+    Set<String> grams = new HashSet<String>();
+    for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+      grams.add(text.substring(i, i + GRAM_LENGTH));
+    }
+    return grams;
+  }
+}
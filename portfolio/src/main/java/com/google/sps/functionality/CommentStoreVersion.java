@@ -0,0 +1,104 @@
+package com.google.sps.functionality;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+  * Tracks the version of the comment store, a number shared by all
+  * instances through memcache that increases every time comments or
+  * usernames change. Responses derived from the comments are tagged with
+  * the version they were read at, so clients can ask whether anything has
+  * changed since without the comments being read again.
+  */
+public class CommentStoreVersion {
+  private static final String VERSION_KEY = "commentStoreVersion";
+
+  /** The version this instance's in-memory comments are known to reflect. */
+  private static final AtomicLong knownVersion = new AtomicLong(-1);
+
+  /**
+    * Returns the current version of the comment store. If memcache has lost
+    * the version, it restarts from the current time, which is later than
+    * any version handed out before. If memcache is unavailable, the current
+    * time is returned, so responses are never reported unchanged.
+    */
+  public static long get() {
+    MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+    Object version = memcache.get(VERSION_KEY);
+    if (version == null) {
+      memcache.put(VERSION_KEY, System.currentTimeMillis(), null,
+        MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+      version = memcache.get(VERSION_KEY);
+    }
+    return version == null ? System.currentTimeMillis() : (Long) version;
+  }
+
+  /**
+    * Increases the version of the comment store, after this instance has
+    * changed comments or usernames in datastore and in memory, and returns
+    * the new version.
+    */
+  public static long bump() {
+    Long newVersion = MemcacheServiceFactory.getMemcacheService()
+      .increment(VERSION_KEY, 1, System.currentTimeMillis());
+    if (newVersion == null) {
+      return System.currentTimeMillis();
+    }
+    // The in-memory comments are still current if no other instance has
+    // changed the store since they were last known to be.
+    knownVersion.compareAndSet(newVersion - 1, newVersion);
+    return newVersion;
+  }
+
+  /**
+    * Returns true if this instance's in-memory comments are known to be
+    * current as of `version`. Otherwise, records that they will be once
+    * the caller has discarded them, and returns false.
+    */
+  public static boolean isKnown(long version) {
+    return knownVersion.getAndSet(version) == version;
+  }
+
+  /**
+    * Returns the entity tag of a response read at `version` and determined
+    * by `parts`, such as the request parameters and the current user.
+    */
+  public static String getETag(long version, String... parts) {
+    return "\"" + Hashing.sha256()
+      .hashString(version + "\n" + String.join("\n", parts),
+        StandardCharsets.UTF_8)
+      .toString().substring(0, 32) + "\"";
+  }
+
+  /**
+    * Tags the response with `eTag`, which clients must revalidate before
+    * reusing, and returns true after answering with 304 Not Modified if
+    * the request's If-None-Match header already names it.
+    */
+  public static boolean respondIfNotModified(HttpServletRequest request,
+    HttpServletResponse response, String eTag) {
+    response.setHeader("ETag", eTag);
+    response.setHeader("Cache-Control", "private, no-cache");
+
+    String ifNoneMatch = request.getHeader("If-None-Match");
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      candidate = candidate.trim();
+      if (candidate.startsWith("W/")) {
+        candidate = candidate.substring(2);
+      }
+      if (candidate.equals(eTag) || candidate.equals("*")) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        return true;
+      }
+    }
+    return false;
+  }
+}
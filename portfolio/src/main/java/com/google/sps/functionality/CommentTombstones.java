@@ -0,0 +1,76 @@
+package com.google.sps.functionality;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.sps.data.EntityProperties;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+  * Deletes comments softly, by replacing each with a tombstone: an entity
+  * with the same key holding only a deleted flag and the version of the
+  * comment store it was deleted at. Writing a tombstone is a single small
+  * put, without reading the comment first. Tombstones have none of the
+  * properties comments are sorted or filtered on, so every query for
+  * comments skips them; comments read by key are checked with
+  * `isTombstone`. The compactor later removes tombstones in batches,
+  * during quiet hours.
+  */
+public class CommentTombstones {
+  /** The system property that turns on soft deletes. */
+  public static final String SOFT_DELETE_PROPERTY =
+    "com.google.sps.softDelete";
+
+  /** The number of tombstones removed at a time, within datastore's limit. */
+  public static final int COMPACTION_BATCH_SIZE = 500;
+
+  /** Returns true if comments should be deleted softly. */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(SOFT_DELETE_PROPERTY);
+  }
+
+  /**
+    * Replaces the comment with id `commentId` by a tombstone, and removes it
+    * from the comments held in memory.
+    */
+  public static void markDeleted(long commentId) {
+    Entity tombstone =
+      new Entity(KeyFactory.createKey("Comment", commentId));
+    tombstone.setProperty(EntityProperties.COMMENT_DELETED, true);
+    tombstone.setUnindexedProperty(EntityProperties.COMMENT_DELETED_VERSION,
+      CommentStoreVersion.get());
+    DatastoreServiceFactory.getDatastoreService().put(tombstone);
+    CommentCache.COMMENT_CACHE_INSTANCE.remove(commentId);
+    CommentSearchIndex.SEARCH_INDEX_INSTANCE.remove(commentId);
+  }
+
+  /** Returns true if `commentEntity` is the tombstone of a deleted comment. */
+  public static boolean isTombstone(Entity commentEntity) {
+    return Boolean.TRUE.equals(
+      commentEntity.getProperty(EntityProperties.COMMENT_DELETED));
+  }
+
+  /**
+    * Removes up to `COMPACTION_BATCH_SIZE` tombstones from datastore,
+    * reading only their keys, and returns the number removed.
+    */
+  public static int compactBatch() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Query query = new Query("Comment")
+      .setKeysOnly()
+      .setFilter(new Query.FilterPredicate(EntityProperties.COMMENT_DELETED,
+        Query.FilterOperator.EQUAL, true));
+    List<Key> keys = datastore.prepare(query)
+      .asList(FetchOptions.Builder.withLimit(COMPACTION_BATCH_SIZE))
+      .stream()
+      .map(Entity::getKey)
+      .collect(Collectors.toList());
+    datastore.delete(keys);
+    return keys.size();
+  }
+}
@@ -0,0 +1,278 @@
+package com.google.sps.functionality;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.sps.data.Comment;
+import com.google.sps.data.EntityProperties;
+import com.google.sps.servlets.AuthenticationServlet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+  * Buffers newly posted comments so that comments posted at about the same
+  * time are stored together, in a single batch, rather than one put per
+  * post. Posted comments are added to a bounded queue. A posting request
+  * that finds no flush in progress becomes the flusher: it waits a few
+  * milliseconds for a batch to fill and stores that one batch. Each
+  * request keeps flushing, or waiting for the flusher, only until its own
+  * comment has been taken into a batch, so it waits for at most the
+  * batches queued ahead of it. It then returns, or, with durable
+  * acknowledgement, waits for that batch to be stored. Without durable
+  * acknowledgement a request skips only that wait: a request that becomes
+  * the flusher, or finds the queue full, still stores a batch before it
+  * returns, as no other thread may. As with `RequestExecutor`, datastore
+  * is only called from threads serving a request, here the posting
+  * requests' own, so every batch is stored before some request returns.
+  * Once the queue is full, posting requests wait for room, and store
+  * their own comment if none is made in time.
+  */
+public class CommentWriteBuffer {
+  private static final Logger logger =
+    Logger.getLogger(CommentWriteBuffer.class.getName());
+
+  /** The system property that turns on buffering of posted comments. */
+  public static final String WRITE_BEHIND_PROPERTY =
+    "com.google.sps.writeBehind";
+
+  /**
+    * The system property that, if set to false, lets posting requests
+    * return before their comment is stored.
+    */
+  public static final String DURABLE_ACK_PROPERTY =
+    "com.google.sps.writeBehindDurableAck";
+
+  /** The default number of comments the queue holds. */
+  public static final int DEFAULT_CAPACITY = 1000;
+
+  /** The default number of comments stored in a single batch. */
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  /** The default time the flusher waits for a batch to fill. */
+  public static final long DEFAULT_LINGER_MILLIS = 5;
+
+  /** How long a posting request waits for room in a full queue. */
+  private static final long BACKPRESSURE_TIMEOUT_MILLIS = 1000;
+
+  /**
+    * How long a posting request waits for another request's flush before
+    * checking whether its comment has been taken into a batch.
+    */
+  private static final long FLUSH_WAIT_MILLIS = 10;
+
+  public static final CommentWriteBuffer COMMENT_WRITE_BUFFER_INSTANCE =
+    new CommentWriteBuffer(DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE,
+      DEFAULT_LINGER_MILLIS, CommentWriteBuffer::storeComments);
+
+  /** A posted comment waiting to be stored. */
+  public static class PendingComment {
+    public final Entity entity;
+    public final String userName;
+    private final CompletableFuture<Void> stored =
+      new CompletableFuture<Void>();
+    /** Whether a flusher has taken this comment into a batch. */
+    private volatile boolean claimed = false;
+
+    PendingComment(Entity entity, String userName) {
+      this.entity = entity;
+      this.userName = userName;
+    }
+  }
+
+  private final BlockingQueue<PendingComment> queue;
+  private final int batchSize;
+  private final long lingerMillis;
+  private final Consumer<List<PendingComment>> store;
+  private final ReentrantLock flushLock = new ReentrantLock();
+
+  private final AtomicLong batchCount = new AtomicLong();
+  private final AtomicLong storedCount = new AtomicLong();
+  private final AtomicLong backpressureCount = new AtomicLong();
+
+  /**
+    * @param store Stores a batch of comments, throwing if it cannot.
+    */
+  public CommentWriteBuffer(int capacity, int batchSize, long lingerMillis,
+    Consumer<List<PendingComment>> store) {
+    this.queue = new ArrayBlockingQueue<PendingComment>(capacity);
+    this.batchSize = batchSize;
+    this.lingerMillis = lingerMillis;
+    this.store = store;
+  }
+
+  /** Returns true if posted comments should be buffered. */
+  public static boolean isEnabled() {
+    return Boolean.getBoolean(WRITE_BEHIND_PROPERTY);
+  }
+
+  /**
+    * Returns true if posting requests should wait for their comment to be
+    * stored before responding, which is the default. Turning it off only
+    * spares requests whose comment is stored by another request's flush;
+    * requests that flush themselves still wait for their batch.
+    */
+  public static boolean isDurableAckEnabled() {
+    return !"false".equals(System.getProperty(DURABLE_ACK_PROPERTY));
+  }
+
+  /**
+    * Queues `commentEntity`, written by the user currently named
+    * `userName`, to be stored, and flushes batches until it has been taken
+    * into one. Returns a future that completes once the comment is stored,
+    * or completes exceptionally if it could not be.
+    */
+  public Future<Void> write(Entity commentEntity, String userName) {
+    PendingComment comment = new PendingComment(commentEntity, userName);
+    if (!queue.offer(comment) && !offerWithBackpressure(comment)) {
+      storeBatch(Collections.singletonList(comment));
+      return comment.stored;
+    }
+    try {
+      while (!comment.claimed) {
+        flush(FLUSH_WAIT_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return comment.stored;
+  }
+
+  /**
+    * Stores at most one batch of queued comments, waiting up to
+    * `waitMillis` for another request's flush to end first. Returns false
+    * if it did not end in time.
+    */
+  public boolean flush(long waitMillis) throws InterruptedException {
+    if (!flushLock.tryLock(waitMillis, TimeUnit.MILLISECONDS)) {
+      return false;
+    }
+    try {
+      storeBatch(nextBatch());
+    } finally {
+      flushLock.unlock();
+    }
+    return true;
+  }
+
+  /** Returns the number of comments waiting to be stored. */
+  public int getQueuedCount() {
+    return queue.size();
+  }
+
+  /** Returns the number of batches stored. */
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  /** Returns the number of comments stored. */
+  public long getStoredCount() {
+    return storedCount.get();
+  }
+
+  /** Returns the number of comments posted while the queue was full. */
+  public long getBackpressureCount() {
+    return backpressureCount.get();
+  }
+
+  /**
+    * Waits for room in the full queue to add `comment`, returning false if
+    * none is made in time.
+    */
+  private boolean offerWithBackpressure(PendingComment comment) {
+    backpressureCount.incrementAndGet();
+    try {
+      return queue.offer(comment, BACKPRESSURE_TIMEOUT_MILLIS,
+        TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+    * Removes and returns the next batch of queued comments, waiting up to
+    * `lingerMillis` for more comments if the batch is not full.
+    */
+  private List<PendingComment> nextBatch() {
+    List<PendingComment> batch = new ArrayList<PendingComment>(batchSize);
+    queue.drainTo(batch, batchSize);
+    long deadline = System.currentTimeMillis() + lingerMillis;
+    try {
+      while (batch.size() < batchSize) {
+        long remainingMillis = deadline - System.currentTimeMillis();
+        if (remainingMillis <= 0) {
+          break;
+        }
+        PendingComment comment =
+          queue.poll(remainingMillis, TimeUnit.MILLISECONDS);
+        if (comment == null) {
+          break;
+        }
+        batch.add(comment);
+        queue.drainTo(batch, batchSize - batch.size());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    batch.forEach(comment -> comment.claimed = true);
+    return batch;
+  }
+
+  /** Stores `batch` and completes the future of each of its comments. */
+  private void storeBatch(List<PendingComment> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      store.accept(batch);
+    } catch (RuntimeException e) {
+      logger.warning("Failed to store buffered comments: " + e);
+      batch.forEach(comment -> comment.stored.completeExceptionally(e));
+      return;
+    }
+    batchCount.incrementAndGet();
+    storedCount.addAndGet(batch.size());
+    batch.forEach(comment -> comment.stored.complete(null));
+  }
+
+  /**
+    * Stores `batch` in datastore in a single put, along with the latest
+    * name of each of their authors, adds the comments to the comment cache
+    * and search index, and queues them to be enriched.
+    */
+  private static void storeComments(List<PendingComment> batch) {
+    DatastoreServiceFactory.getDatastoreService().put(batch.stream()
+      .map(comment -> comment.entity)
+      .collect(Collectors.toList()));
+
+    Map<String, String> usernames = new LinkedHashMap<String, String>();
+    batch.forEach(comment -> usernames.put(
+      (String) comment.entity.getProperty(EntityProperties.USER_ID),
+      comment.userName));
+    usernames.forEach((userId, userName) ->
+      AuthenticationServlet.updateUserName(userName, userId));
+
+    List<Long> ids = new ArrayList<Long>();
+    for (PendingComment pendingComment : batch) {
+      Comment comment =
+        Comment.fromEntity(pendingComment.entity, pendingComment.userName);
+      CommentCache.COMMENT_CACHE_INSTANCE.add(comment);
+      CommentSearchIndex.SEARCH_INDEX_INSTANCE.add(comment);
+      ids.add(comment.id);
+    }
+    CommentEnricher.enqueueAll(ids);
+    CommentStoreVersion.bump();
+  }
+}
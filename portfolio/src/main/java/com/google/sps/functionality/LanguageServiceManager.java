@@ -0,0 +1,185 @@
+package com.google.sps.functionality;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.InvalidArgumentException;
+import com.google.cloud.language.v1.LanguageServiceClient;
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  * Owns the Natural Language API client shared by the whole application,
+  * so that its connection and credentials are set up once per instance
+  * rather than once per comment. The client is created and connected when
+  * the application starts, and closed when it stops. Calls are guarded by
+  * a circuit breaker: after repeated failures, they are stopped for a
+  * while. Texts are analyzed locally, by `LexiconSentimentAnalyzer`, while
+  * the breaker is open, while too many calls are already in progress, or
+  * when operators force it, rather than waiting on the API.
+  */
+public class LanguageServiceManager {
+  /** The number of consecutive failures after which calls are stopped. */
+  private static final int FAILURE_THRESHOLD = 5;
+
+  /** How long calls are stopped for once the breaker opens. */
+  private static final long COOL_DOWN_MILLIS = 30 * 1000;
+
+  /** A short text analyzed when the instance starts, to open the connection. */
+  private static final String WARM_UP_TEXT = "Hello world";
+
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+  /**
+    * The most calls to the API made at once by an instance. Texts analyzed
+    * while this many calls are in progress are analyzed locally instead,
+    * shedding load rather than queueing behind a slow API.
+    */
+  private static final int MAX_CONCURRENT_CALLS = 8;
+
+  /** The system property that forces every text to be analyzed locally. */
+  public static final String FORCE_LOCAL_ANALYSIS_PROPERTY =
+    "com.google.sps.forceLocalAnalysis";
+
+  public static final LanguageServiceManager LANGUAGE_SERVICE_INSTANCE =
+    new LanguageServiceManager(
+      new CircuitBreaker(FAILURE_THRESHOLD, COOL_DOWN_MILLIS));
+
+  private final CircuitBreaker circuitBreaker;
+  private final TextAnalysisCache analysisCache =
+    TextAnalysisCache.TEXT_ANALYSIS_CACHE_INSTANCE;
+  private final Semaphore callPermits = new Semaphore(MAX_CONCURRENT_CALLS);
+  private final AtomicLong localAnalysisCount = new AtomicLong();
+  private LanguageServiceClient client;
+
+  public LanguageServiceManager(CircuitBreaker circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /**
+    * Creates the shared client and makes a first call with it, so that the
+    * connection is already open when the first comment is analyzed.
+    * Failures are logged rather than thrown, as the client is created again
+    * when it is first needed.
+    */
+  public void start() {
+    try {
+      SentimentAnalyzer.getSentiment(WARM_UP_TEXT, getClient());
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Failed to warm up LanguageServiceClient: " + e);
+    }
+  }
+
+  /** Closes the shared client, waiting briefly for calls in progress. */
+  public synchronized void stop() {
+    if (client == null) {
+      return;
+    }
+    client.shutdown();
+    try {
+      client.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    client.close();
+    client = null;
+  }
+
+  /**
+    * Analyzes the sentiment, topic and named entities of `text` with the
+    * shared client, unless a text with the same normalized form has been
+    * analyzed before, in which case its cached analysis is returned, or
+    * the API cannot be used right now, in which case it is analyzed
+    * locally.
+    * @throws ServiceUnavailableException if the client cannot be created.
+    * @throws ApiException if the call fails.
+    */
+  public SentimentAnalyzer.TextAnalysis analyze(String text) {
+    SentimentAnalyzer.TextAnalysis cachedAnalysis = analysisCache.get(text);
+    if (cachedAnalysis != null) {
+      return cachedAnalysis;
+    }
+    if (isLocalAnalysisForced() || !callPermits.tryAcquire()) {
+      return analyzeLocally(text);
+    }
+    try {
+      if (!circuitBreaker.allowRequest()) {
+        return analyzeLocally(text);
+      }
+      SentimentAnalyzer.TextAnalysis analysis =
+        SentimentAnalyzer.analyze(text, getClient());
+      circuitBreaker.recordSuccess();
+      analysisCache.put(text, analysis);
+      return analysis;
+    } catch (InvalidArgumentException e) {
+      // The text, not the service, is at fault.
+      circuitBreaker.recordSuccess();
+      throw e;
+    } catch (ApiException e) {
+      circuitBreaker.recordFailure();
+      throw e;
+    } catch (IOException e) {
+      circuitBreaker.recordFailure();
+      throw new ServiceUnavailableException(
+        "Failed to create LanguageServiceClient", e);
+    } finally {
+      callPermits.release();
+    }
+  }
+
+  /** Returns the number of texts analyzed locally instead of by the API. */
+  public long getLocalAnalysisCount() {
+    return localAnalysisCount.get();
+  }
+
+  /**
+    * Returns true if operators have set the system property
+    * `FORCE_LOCAL_ANALYSIS_PROPERTY`, in appengine-web.xml, to stop all
+    * calls to the Natural Language API.
+    */
+  private static boolean isLocalAnalysisForced() {
+    return Boolean.getBoolean(FORCE_LOCAL_ANALYSIS_PROPERTY);
+  }
+
+  /**
+    * Returns the local analysis of `text`, which has a sentiment but no
+    * topic or entity links. Local analyses are not cached, so the text is
+    * sent to the API once it is available again.
+    */
+  private SentimentAnalyzer.TextAnalysis analyzeLocally(String text) {
+    localAnalysisCount.incrementAndGet();
+    return LexiconSentimentAnalyzer.analyze(text);
+  }
+
+  /**
+    * Returns true if texts would currently be sent to the API, as far as
+    * this instance knows, rather than analyzed locally.
+    */
+  public boolean isApiAvailable() {
+    return !isLocalAnalysisForced() && !circuitBreaker.isOpen();
+  }
+
+  /** Returns true if calls are currently stopped by the circuit breaker. */
+  public boolean isCircuitOpen() {
+    return circuitBreaker.isOpen();
+  }
+
+  /** Returns the shared client, creating it if it is not open. */
+  private synchronized LanguageServiceClient getClient() throws IOException {
+    if (client == null || client.isShutdown()) {
+      client = LanguageServiceClient.create();
+    }
+    return client;
+  }
+
+  /** Thrown when the Natural Language API cannot be called. */
+  public static class ServiceUnavailableException extends RuntimeException {
+    public ServiceUnavailableException(String message) {
+      super(message);
+    }
+
+    public ServiceUnavailableException(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+}
@@ -0,0 +1,178 @@
+package com.google.sps.functionality;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+  * Scores the sentiment of text locally, from a lexicon of English words,
+  * for when the Natural Language API cannot be used. Each word's score is
+  * looked up in the lexicon, strengthened by a preceding intensifier such
+  * as "very", and reversed by a negation such as "not" earlier in the same
+  * clause. The summed scores are scaled to the range of the API's scores.
+  * This is far less accurate than the API, and finds no topic or entities,
+  * but takes microseconds.
+  */
+public class LexiconSentimentAnalyzer {
+  private static final String LEXICON_RESOURCE = "/sentiment_lexicon.tsv";
+
+  /**
+    * The number of words after a negation whose sentiment it reverses,
+    * unless the clause ends first.
+    */
+  private static final int NEGATION_SCOPE = 3;
+
+  /** How much a negated word's score is scaled by. */
+  private static final float NEGATION_FACTOR = -0.75f;
+
+  /** How much a word's score is scaled by when preceded by an intensifier. */
+  private static final float INTENSIFIER_FACTOR = 1.5f;
+
+  /**
+    * Controls how quickly the summed score approaches 1 or -1 when scaled;
+    * the larger it is, the more sentiment words a text needs to be scored
+    * strongly.
+    */
+  private static final float NORMALIZATION_ALPHA = 15;
+
+  private static final Set<String> NEGATIONS = new HashSet<String>(
+    Arrays.asList("not", "no", "never", "nothing", "nobody", "none",
+      "neither", "nor", "cannot", "without"));
+
+  private static final Set<String> INTENSIFIERS = new HashSet<String>(
+    Arrays.asList("very", "really", "extremely", "so", "super", "totally",
+      "incredibly", "absolutely", "highly"));
+
+  /** The words of the lexicon, sorted so they can be binary searched. */
+  private static final String[] words;
+
+  /** The score of each word of the lexicon, at the same index. */
+  private static final float[] scores;
+
+  static {
+    Map<String, Float> lexicon = loadLexicon();
+    words = new String[lexicon.size()];
+    scores = new float[lexicon.size()];
+    int i = 0;
+    for (Map.Entry<String, Float> entry : lexicon.entrySet()) {
+      words[i] = entry.getKey();
+      scores[i] = entry.getValue();
+      i++;
+    }
+  }
+
+  /** Returns the sentiment type of `text`. */
+  public static SentimentAnalyzer.SentimentType getSentiment(String text) {
+    return SentimentAnalyzer.getSentimentType(getScore(text));
+  }
+
+  /**
+    * Returns the sentiment score of `text`, from -1 (most negative) to 1
+    * (most positive).
+    */
+  public static float getScore(String text) {
+    float sum = 0;
+    int wordsSinceNegation = NEGATION_SCOPE;
+    boolean isIntensified = false;
+
+    int length = text.length();
+    int i = 0;
+    while (i < length) {
+      char c = text.charAt(i);
+      if (isClauseEnd(c)) {
+        wordsSinceNegation = NEGATION_SCOPE;
+        isIntensified = false;
+        i++;
+        continue;
+      }
+      if (!isWordCharacter(c)) {
+        i++;
+        continue;
+      }
+
+      int start = i;
+      while (i < length && isWordCharacter(text.charAt(i))) {
+        i++;
+      }
+      String word = text.substring(start, i).toLowerCase().replace('’', '\'');
+
+      if (NEGATIONS.contains(word) || word.endsWith("n't")) {
+        wordsSinceNegation = 0;
+        continue;
+      }
+      if (INTENSIFIERS.contains(word)) {
+        isIntensified = true;
+        continue;
+      }
+
+      float score = getWordScore(word);
+      if (isIntensified) {
+        score *= INTENSIFIER_FACTOR;
+        isIntensified = false;
+      }
+      if (wordsSinceNegation < NEGATION_SCOPE) {
+        score *= NEGATION_FACTOR;
+        wordsSinceNegation++;
+      }
+      sum += score;
+    }
+    return (float) (sum / Math.sqrt(sum * sum + NORMALIZATION_ALPHA));
+  }
+
+  /**
+    * Returns an analysis of `text` with its locally scored sentiment, no
+    * topic, and no entity links, marked as local.
+    */
+  public static SentimentAnalyzer.TextAnalysis analyze(String text) {
+    return new SentimentAnalyzer.TextAnalysis(getSentiment(text), "", text,
+      Collections.emptyList(), true);
+  }
+
+  /** Returns the score of `word`, or 0 if it is not in the lexicon. */
+  private static float getWordScore(String word) {
+    int index = Arrays.binarySearch(words, word);
+    return index < 0 ? 0 : scores[index];
+  }
+
+  private static boolean isWordCharacter(char c) {
+    return Character.isLetter(c) || c == '\'' || c == '’';
+  }
+
+  private static boolean isClauseEnd(char c) {
+    return c == '.' || c == ',' || c == '!' || c == '?' || c == ';'
+      || c == ':';
+  }
+
+  /** Reads the lexicon, sorted by word, from the application's resources. */
+  private static Map<String, Float> loadLexicon() {
+    Map<String, Float> lexicon = new TreeMap<String, Float>();
+    InputStream stream =
+      LexiconSentimentAnalyzer.class.getResourceAsStream(LEXICON_RESOURCE);
+    if (stream == null) {
+      System.err.println("Sentiment lexicon not found");
+      return lexicon;
+    }
+    try (BufferedReader reader = new BufferedReader(
+      new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split("\t");
+        lexicon.put(fields[0], Float.parseFloat(fields[1]));
+      }
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Failed to read sentiment lexicon: " + e);
+    }
+    return lexicon;
+  }
+}
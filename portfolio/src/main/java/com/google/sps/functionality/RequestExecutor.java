@@ -0,0 +1,127 @@
+package com.google.sps.functionality;
+
+import com.google.appengine.api.ThreadManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+  * Runs the work of requests on request threads, which App Engine lets
+  * call its services and stops once the request ends. Asynchronous
+  * requests are processed on a thread of their own, and independent calls
+  * to datastore or other services made while processing a request fan out
+  * in parallel on a pool belonging to that request. The pool is created
+  * the first time the request fans out, reused by its later fan-outs, and
+  * shut down once the request's work is done. Every fan-out finishes, or
+  * is cancelled, within a deadline well before the request's own.
+  */
+public class RequestExecutor {
+  /** The most threads a request fans out to, besides its own. */
+  private static final int MAX_FAN_OUT_THREADS = 8;
+
+  /** The longest a fan-out may take, well within the request deadline. */
+  private static final long FAN_OUT_TIMEOUT_MILLIS = 30 * 1000;
+
+  /** The fan-out pool of a request processed by `execute`. */
+  private static class RequestPool {
+    private ExecutorService pool;
+
+    /** Returns the pool, creating it on the request's first fan-out. */
+    ExecutorService get() {
+      if (pool == null) {
+        pool = newPool();
+      }
+      return pool;
+    }
+
+    void shutdown() {
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+    }
+  }
+
+  /** The pool of the request whose work the current thread is doing. */
+  private static final ThreadLocal<RequestPool> currentPool =
+    new ThreadLocal<RequestPool>();
+
+  /**
+    * Processes a request on a new thread of the current request, releasing
+    * the serving thread. All of its fan-outs share one pool. Must be called
+    * on a thread serving a request, which `request` must complete.
+    */
+  public static void execute(Runnable request) {
+    ThreadManager.createThreadForCurrentRequest(() -> {
+      RequestPool pool = new RequestPool();
+      currentPool.set(pool);
+      try {
+        request.run();
+      } finally {
+        currentPool.remove();
+        pool.shutdown();
+      }
+    }).start();
+  }
+
+  /**
+    * Runs each of `tasks` in parallel and returns their results in the same
+    * order, once all of them have finished. The first task runs on the
+    * calling thread, which must be serving a request. Exceptions thrown by
+    * a task are rethrown, and tasks still running after
+    * `FAN_OUT_TIMEOUT_MILLIS` are cancelled. Requests processed by
+    * `execute` reuse their pool; other requests get one for the call.
+    */
+  public static <T> List<T> invokeAll(List<Callable<T>> tasks) {
+    List<T> results = new ArrayList<T>();
+    if (tasks.isEmpty()) {
+      return results;
+    }
+    RequestPool requestPool = currentPool.get();
+    ExecutorService pool = tasks.size() == 1 ? null
+      : requestPool != null ? requestPool.get() : newPool();
+    long deadline = System.currentTimeMillis() + FAN_OUT_TIMEOUT_MILLIS;
+    List<Future<T>> futures = new ArrayList<Future<T>>();
+    try {
+      for (Callable<T> task : tasks.subList(1, tasks.size())) {
+        futures.add(pool.submit(task));
+      }
+      results.add(tasks.get(0).call());
+      for (Future<T> future : futures) {
+        results.add(future.get(
+          Math.max(0, deadline - System.currentTimeMillis()),
+          TimeUnit.MILLISECONDS));
+      }
+    } catch (ExecutionException e) {
+      throw asRuntimeException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (Exception e) {
+      throw asRuntimeException(e);
+    } finally {
+      futures.forEach(future -> future.cancel(true));
+      if (pool != null && requestPool == null) {
+        pool.shutdownNow();
+      }
+    }
+    return results;
+  }
+
+  /** Returns a pool of threads belonging to the current request. */
+  private static ExecutorService newPool() {
+    return Executors.newFixedThreadPool(MAX_FAN_OUT_THREADS,
+      ThreadManager.currentRequestThreadFactory());
+  }
+
+  private static RuntimeException asRuntimeException(Throwable cause) {
+    if (cause instanceof RuntimeException) {
+      return (RuntimeException) cause;
+    }
+    return new RuntimeException(cause);
+  }
+}
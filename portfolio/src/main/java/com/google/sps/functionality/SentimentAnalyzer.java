@@ -4,13 +4,15 @@ import com.google.cloud.language.v1.Document;
 import com.google.cloud.language.v1.LanguageServiceClient;
 import com.google.cloud.language.v1.Sentiment;
 import com.google.cloud.language.v1.Entity;
-import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
-import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
 import com.google.cloud.language.v1.AnalyzeSentimentResponse;
-import com.google.cloud.language.v1.ClassifyTextRequest;
-import com.google.cloud.language.v1.ClassifyTextResponse;
 import com.google.cloud.language.v1.ClassificationCategory;
+import com.google.cloud.language.v1.AnnotateTextRequest;
+import com.google.cloud.language.v1.AnnotateTextResponse;
+import com.google.cloud.language.v1.EncodingType;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.TextSpan;
 import com.google.api.gax.rpc.InvalidArgumentException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.lang.StringBuilder;
@@ -20,6 +22,18 @@ import java.util.Comparator;
 /** Class that analyzes the sentiment and content of text.  */
 public class SentimentAnalyzer { 
 
+  private static final String WIKIPEDIA_URL = "wikipedia_url";
+  private static final String LINK_START = "<a target=\"_blank\" href=\"";
+  private static final String LINK_MIDDLE = "\">";
+  private static final String LINK_END = "</a>";
+
+  /** 
+    * The fewest tokens the Natural Language API classifies. As texts have 
+    * at least as many tokens as whitespace-separated words, texts with 
+    * fewer words are not sent to be classified.
+    */
+  private static final int MIN_TOKENS_TO_CLASSIFY = 20;
+
   /** The three "moods" a comment can have. */
   public static enum SentimentType {
     POSITIVE,
@@ -41,6 +55,11 @@ public class SentimentAnalyzer {
       .getDocumentSentiment();
     score = sentiment.getScore();
 
+    return getSentimentType(score);
+  }
+
+  /** Returns the sentiment type of text with sentiment score `score`. */
+  public static SentimentType getSentimentType(float score) {
     if (score < -0.5) {
       return SentimentType.NEGATIVE;
     } else if (score < 0.5) {
@@ -52,64 +71,186 @@ public class SentimentAnalyzer {
 
   /** 
     * Returns an HTML String that contains `text`, but with wikipedia links
-    * embedded in the string that give more information about the named 
-    * entities that were detected in `text`, if the entity recognition
-    * analysis of the text yields these wikipedia links.
+    * embedded for each of `entities` that has one. Each entity is linked at
+    * its first mention, located by the mention's offset if the analysis
+    * reported one that matches `text`, or else at the first occurrence of
+    * its name. The HTML is built in a single pass over `text`.
     */
   public static String getHTMLWithNamedEntityLinks(String text, 
-    LanguageServiceClient languageService) {
-    Document document = Document.newBuilder().setContent(text).setType
-      (Document.Type.PLAIN_TEXT).build();
-    AnalyzeEntitiesRequest request = AnalyzeEntitiesRequest.newBuilder().setDocument(document).build();
-    StringBuilder textWithLinks = new StringBuilder(text);
-
-    List<Entity> entities = languageService.analyzeEntities(request)
-      .getEntitiesList();
-    entities.forEach(entity -> insertLink(entity, textWithLinks));
+    List<Entity> entities) {
+    List<LinkSpan> spans = new ArrayList<LinkSpan>();
+    int linksLength = 0;
+    for (Entity entity : entities) {
+      LinkSpan span = getLinkSpan(entity, text);
+      if (span != null) {
+        spans.add(span);
+        linksLength += LINK_START.length() + span.url.length() 
+          + LINK_MIDDLE.length() + LINK_END.length();
+      }
+    }
+    if (spans.isEmpty()) {
+      return text;
+    }
+    spans.sort(Comparator.comparingInt(span -> span.start));
 
-    return textWithLinks.toString();
+    StringBuilder textWithLinks = 
+      new StringBuilder(text.length() + linksLength);
+    int copiedUpTo = 0;
+    for (LinkSpan span : spans) {
+      if (span.start < copiedUpTo) {
+        // Overlaps a mention that is already linked.
+        continue;
+      }
+      textWithLinks.append(text, copiedUpTo, span.start)
+        .append(LINK_START).append(span.url).append(LINK_MIDDLE)
+        .append(text, span.start, span.end)
+        .append(LINK_END);
+      copiedUpTo = span.end;
+    }
+    return textWithLinks.append(text, copiedUpTo, text.length()).toString();
   }
 
   /** 
-    * Inserts HTML into `textWithLinks` such that the first occurence
-    * of the name of `entity` becomes a link to a wikipedia page
-    * about that entity, if such a wikipedia link was found by the 
-    * entity analysis. 
+    * Returns the span of `text` to link to the wikipedia page about 
+    * `entity`, or null if the entity has no such page or is not found in 
+    * `text`.
     */
-  private static void insertLink(Entity entity, StringBuilder textWithLinks) {
-    if (entity.containsMetadata("wikipedia_url")) {
-        textWithLinks.insert(
-          textWithLinks.indexOf(entity.getName()) + entity.getName().length(),
-            "</a>");
-        textWithLinks.insert(textWithLinks.indexOf(entity.getName()), 
-          "<a target=\"_blank\" href=\""+
-            entity.getMetadataMap().get("wikipedia_url")+"\">");
+  private static LinkSpan getLinkSpan(Entity entity, String text) {
+    if (!entity.containsMetadata(WIKIPEDIA_URL)) {
+      return null;
+    }
+    String url = entity.getMetadataMap().get(WIKIPEDIA_URL);
+    int start = -1;
+    int length = 0;
+    for (EntityMention mention : entity.getMentionsList()) {
+      TextSpan mentionText = mention.getText();
+      int offset = mentionText.getBeginOffset();
+      String content = mentionText.getContent();
+      // Offsets are only trusted if they point at the mention in this text;
+      // they may not when the analysis is shared with a differently 
+      // formatted copy of the text.
+      if (offset >= 0 && (start < 0 || offset < start) 
+        && text.startsWith(content, offset)) {
+        start = offset;
+        length = content.length();
+      }
+    }
+    if (start < 0) {
+      start = text.indexOf(entity.getName());
+      length = entity.getName().length();
     }
+    return start < 0 || length == 0 ? null 
+      : new LinkSpan(start, start + length, url);
+  }
+
+  /** A span of text to be linked to `url`. */
+  private static class LinkSpan {
+    final int start;
+    final int end;
+    final String url;
+
+    LinkSpan(int start, int end, String url) {
+      this.start = start;
+      this.end = end;
+      this.url = url;
+    }
+  }
+
+  /** 
+    * Returns the name of the highest-confidence category of `categories`,
+    * or the empty string if there are none.
+    */
+  private static String getBestTopic(List<ClassificationCategory> categories) {
+    return categories.stream()
+      .max(Comparator.comparing(category -> category.getConfidence()))
+      .map(ClassificationCategory::getName)
+      .orElse("");
   }
 
   /** 
-    * Returns the highest-confidence topic if a topic could be 
-    * determined from the text, and otherwise returns the 
-    * empty string. 
+    * Analyzes the sentiment, topic and named entities of `text` in a single
+    * request to the Natural Language API. Texts too short to be classified
+    * are analyzed without a topic, rather than the whole request failing.
     */
-  public static String getTopic(String text, 
+  public static TextAnalysis analyze(String text, 
     LanguageServiceClient languageService) {
+    boolean classifyText = 
+      text.trim().split("\\s+").length >= MIN_TOKENS_TO_CLASSIFY;
+    AnnotateTextResponse response;
+    try {
+      response = languageService.annotateText(
+        getAnnotateTextRequest(text, classifyText));
+    } catch (com.google.api.gax.rpc.InvalidArgumentException e) {
+      if (!classifyText) {
+        throw e;
+      }
+      // The text could not be classified, for instance because of its 
+      // language, so it is analyzed again without a topic.
+      classifyText = false;
+      response = languageService.annotateText(
+        getAnnotateTextRequest(text, classifyText));
+    }
+
+    return new TextAnalysis(
+      getSentimentType(response.getDocumentSentiment().getScore()),
+      classifyText ? getBestTopic(response.getCategoriesList()) : "",
+      getHTMLWithNamedEntityLinks(text, response.getEntitiesList()),
+      response.getEntitiesList());
+  }
+
+  /** 
+    * Returns a request to annotate the sentiment and entities of `text`, 
+    * and if `classifyText` is true, its topic. Offsets of entity mentions 
+    * are given in UTF-16 code units, the units of Java string indices.
+    */
+  private static AnnotateTextRequest getAnnotateTextRequest(String text, 
+    boolean classifyText) {
     Document document = Document.newBuilder().setContent(text).setType
       (Document.Type.PLAIN_TEXT).build();
-    ClassifyTextRequest request = ClassifyTextRequest.newBuilder().setDocument(document).build();
-    String topic = "";
+    AnnotateTextRequest.Features features = 
+      AnnotateTextRequest.Features.newBuilder()
+        .setExtractDocumentSentiment(true)
+        .setExtractEntities(true)
+        .setClassifyText(classifyText)
+        .build();
+    return AnnotateTextRequest.newBuilder()
+      .setDocument(document)
+      .setFeatures(features)
+      .setEncodingType(EncodingType.UTF16)
+      .build();
+  }
 
-    try {
-      List<ClassificationCategory> categories = 
-      languageService.classifyText(request).getCategoriesList();
-      ClassificationCategory bestCategory = categories.stream()
-        .max(Comparator.comparing(category -> category.getConfidence()))
-        .get();
-      topic = bestCategory.getName();
-    } catch (com.google.api.gax.rpc.InvalidArgumentException e) {
-      //No action needed; no topic was detected
+  /** The results of analyzing a text with `analyze`. */
+  public static class TextAnalysis {
+    public final SentimentType sentiment;
+
+    /** The highest-confidence topic, or the empty string if there is none. */
+    public final String topic;
+
+    /** The text, with links to wikipedia pages about its named entities. */
+    public final String htmlWithEntityLinks;
+
+    /** The named entities of the text, along with their mentions. */
+    public final List<Entity> entities;
+
+    /**
+      * Whether the text was analyzed locally rather than by the API, so
+      * that it should be analyzed again once the API is available.
+      */
+    public final boolean isLocal;
+
+    public TextAnalysis(SentimentType sentiment, String topic, 
+      String htmlWithEntityLinks, List<Entity> entities) {
+      this(sentiment, topic, htmlWithEntityLinks, entities, false);
     }
 
-    return topic;
+    public TextAnalysis(SentimentType sentiment, String topic, 
+      String htmlWithEntityLinks, List<Entity> entities, boolean isLocal) {
+      this.sentiment = sentiment;
+      this.topic = topic;
+      this.htmlWithEntityLinks = htmlWithEntityLinks;
+      this.entities = entities;
+      this.isLocal = isLocal;
+    }
   }
 }
@@ -0,0 +1,210 @@
+package com.google.sps.functionality;
+
+import com.google.appengine.api.datastore.Blob;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.cloud.language.v1.AnnotateTextResponse;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.sps.data.EntityProperties;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+  * A two-tier cache of Natural Language analyses, so that texts posted
+  * again and again are only sent to the API once. The first tier is an
+  * in-memory LRU cache; the second is the "TextAnalysis" kind in
+  * datastore, which outlives instance restarts and is shared by all
+  * instances. Analyses are keyed by the SHA-256 hash of the normalized
+  * text, so texts that differ only in Unicode form or whitespace share an
+  * analysis. Entity links are rendered again for each text, as they are
+  * inserted into the text as it was written. Analyses expire from both
+  * tiers after a fixed time to live; expired entities are ignored when
+  * read and removed in batches by cron.
+  */
+public class TextAnalysisCache {
+  /** The default number of analyses held in memory. */
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  /** The default time an analysis is cached for. */
+  public static final long DEFAULT_TIME_TO_LIVE_MILLIS =
+    TimeUnit.DAYS.toMillis(30);
+
+  /** The number of expired analyses removed at a time. */
+  public static final int COMPACTION_BATCH_SIZE = 500;
+
+  public static final TextAnalysisCache TEXT_ANALYSIS_CACHE_INSTANCE =
+    new TextAnalysisCache(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE_MILLIS);
+
+  private final long timeToLiveMillis;
+  private final Cache<String, SentimentAnalyzer.TextAnalysis> memoryCache;
+
+  private final AtomicLong memoryHitCount = new AtomicLong();
+  private final AtomicLong datastoreHitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  public TextAnalysisCache(int maxSize, long timeToLiveMillis) {
+    this.timeToLiveMillis = timeToLiveMillis;
+    this.memoryCache = CacheBuilder.newBuilder()
+      .maximumSize(maxSize)
+      .expireAfterWrite(timeToLiveMillis, TimeUnit.MILLISECONDS)
+      .build();
+  }
+
+  /**
+    * Returns the cached analysis of `text`, checking memory and then
+    * datastore, or null if no text with the same normalized form has been
+    * analyzed.
+    */
+  public SentimentAnalyzer.TextAnalysis get(String text) {
+    String key = getCacheKey(text);
+    SentimentAnalyzer.TextAnalysis analysis = memoryCache.getIfPresent(key);
+    if (analysis != null) {
+      memoryHitCount.incrementAndGet();
+      return forText(analysis, text);
+    }
+
+    analysis = getFromDatastore(key);
+    if (analysis != null) {
+      datastoreHitCount.incrementAndGet();
+      memoryCache.put(key, analysis);
+      return forText(analysis, text);
+    }
+    missCount.incrementAndGet();
+    return null;
+  }
+
+  /**
+    * Caches `analysis` as the analysis of `text`, unless it was made
+    * locally, so that the text is sent to the API once it is available.
+    * The datastore write is asynchronous, so the caller does not wait for
+    * it; App Engine completes it before the request ends.
+    */
+  public void put(String text, SentimentAnalyzer.TextAnalysis analysis) {
+    if (analysis.isLocal) {
+      return;
+    }
+    String key = getCacheKey(text);
+    memoryCache.put(key, analysis);
+
+    Entity entity = new Entity("TextAnalysis", key);
+    entity.setUnindexedProperty(EntityProperties.ANALYSIS_SENTIMENT,
+      analysis.sentiment.name());
+    entity.setUnindexedProperty(EntityProperties.ANALYSIS_TOPIC,
+      analysis.topic);
+    entity.setUnindexedProperty(EntityProperties.ANALYSIS_ENTITIES,
+      new Blob(AnnotateTextResponse.newBuilder()
+        .addAllEntities(analysis.entities)
+        .build()
+        .toByteArray()));
+    entity.setProperty(EntityProperties.ANALYSIS_EXPIRATION,
+      System.currentTimeMillis() + timeToLiveMillis);
+    DatastoreServiceFactory.getAsyncDatastoreService().put(entity);
+  }
+
+  /** Returns the number of lookups served from memory. */
+  public long getMemoryHitCount() {
+    return memoryHitCount.get();
+  }
+
+  /** Returns the number of lookups served from datastore. */
+  public long getDatastoreHitCount() {
+    return datastoreHitCount.get();
+  }
+
+  /** Returns the number of lookups that found no cached analysis. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+    * Returns the fraction of lookups served by either tier, or 0 if there
+    * have been no lookups.
+    */
+  public double getHitRate() {
+    long hits = memoryHitCount.get() + datastoreHitCount.get();
+    long lookups = hits + missCount.get();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  /**
+    * Removes up to `COMPACTION_BATCH_SIZE` expired analyses from datastore,
+    * reading only their keys, and returns the number removed.
+    */
+  public static int compactBatch() {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Query query = new Query("TextAnalysis")
+      .setKeysOnly()
+      .setFilter(new Query.FilterPredicate(
+        EntityProperties.ANALYSIS_EXPIRATION, Query.FilterOperator.LESS_THAN,
+        System.currentTimeMillis()));
+    List<Key> keys = datastore.prepare(query)
+      .asList(FetchOptions.Builder.withLimit(COMPACTION_BATCH_SIZE))
+      .stream()
+      .map(Entity::getKey)
+      .collect(Collectors.toList());
+    datastore.delete(keys);
+    return keys.size();
+  }
+
+  /**
+    * Returns the unexpired analysis stored in datastore under `key`, or
+    * null if there is none or it cannot be read. Analyses stored without
+    * an expiration are treated as expired.
+    */
+  private SentimentAnalyzer.TextAnalysis getFromDatastore(String key) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    try {
+      Entity entity = datastore.get(KeyFactory.createKey("TextAnalysis", key));
+      Long expiration =
+        (Long) entity.getProperty(EntityProperties.ANALYSIS_EXPIRATION);
+      if (expiration == null || expiration < System.currentTimeMillis()) {
+        return null;
+      }
+      return new SentimentAnalyzer.TextAnalysis(
+        SentimentAnalyzer.SentimentType.valueOf(
+          (String) entity.getProperty(EntityProperties.ANALYSIS_SENTIMENT)),
+        (String) entity.getProperty(EntityProperties.ANALYSIS_TOPIC),
+        "",
+        AnnotateTextResponse.parseFrom(((Blob) entity.getProperty(
+          EntityProperties.ANALYSIS_ENTITIES)).getBytes()).getEntitiesList());
+    } catch (EntityNotFoundException | InvalidProtocolBufferException e) {
+      return null;
+    }
+  }
+
+  /** Returns `analysis` with its entity links inserted into `text`. */
+  private static SentimentAnalyzer.TextAnalysis forText(
+    SentimentAnalyzer.TextAnalysis analysis, String text) {
+    return new SentimentAnalyzer.TextAnalysis(analysis.sentiment,
+      analysis.topic,
+      SentimentAnalyzer.getHTMLWithNamedEntityLinks(text, analysis.entities),
+      analysis.entities);
+  }
+
+  /**
+    * Returns the key the analysis of `text` is cached under: the hash of
+    * `text` in Unicode normal form, with runs of whitespace collapsed and
+    * leading and trailing whitespace removed.
+    */
+  public static String getCacheKey(String text) {
+    String normalizedText = Normalizer.normalize(text, Normalizer.Form.NFKC)
+      .trim()
+      .replaceAll("\\s+", " ");
+    return Hashing.sha256()
+      .hashString(normalizedText, StandardCharsets.UTF_8)
+      .toString();
+  }
+}
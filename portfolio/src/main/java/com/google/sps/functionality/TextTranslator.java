@@ -3,22 +3,110 @@ package com.google.sps.functionality;
 import com.google.cloud.translate.Translate;
 import com.google.cloud.translate.TranslateOptions;
 import com.google.cloud.translate.Translation;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 
 /** Class that translates text.  */
-public class TextTranslator { 
-  /** Translates `text` from original language to the language
-    * specified by `languageCode` and returns the translated text. 
-    * If `languageCode` is "none", then returns `text` unchanged.
+public class TextTranslator {
+  /** The largest number of texts the translation API accepts per request. */
+  private static final int MAX_TEXTS_PER_REQUEST = 128;
+
+  /** The largest number of characters to send in a single request. */
+  private static final int MAX_CHARACTERS_PER_REQUEST = 30000;
+
+  private static final TranslationCache translationCache =
+    TranslationCache.TRANSLATION_CACHE_INSTANCE;
+
+  /**
+    * Translates each of `texts` from its original language to the language
+    * specified by `languageCode` and returns the translated texts in the 
+    * same order. If `languageCode` is "none", then returns `texts` 
+    * unchanged. Texts that have not been translated before are sent to the
+    * translation API together, in as few requests as its size limits allow,
+    * which are made in parallel.
     */
-  public static String translateText(String text, String languageCode) {
-   if (languageCode.equals("none")) {
-      return text;
+  public static List<String> translateAll(List<String> texts, 
+    String languageCode) {
+    if (languageCode.equals("none")) {
+      return texts;
+    }
+
+    Map<String, String> translations = 
+      translationCache.getAll(texts, languageCode);
+    List<String> untranslatedTexts = texts.stream()
+      .filter(text -> !translations.containsKey(text))
+      .distinct()
+      .collect(Collectors.toList());
+
+    if (!untranslatedTexts.isEmpty()) {
+      Translate translate = TranslateOptions.getDefaultInstance().getService();
+      List<List<String>> requests = toRequests(untranslatedTexts);
+      List<Callable<List<Translation>>> calls = 
+        new ArrayList<Callable<List<Translation>>>();
+      for (List<String> request : requests) {
+        calls.add(() -> translate.translate(request,
+          Translate.TranslateOption.targetLanguage(languageCode)));
+      }
+      List<List<Translation>> responses = RequestExecutor.invokeAll(calls);
+
+      Map<String, String> newTranslations = new HashMap<String, String>();
+      for (int i = 0; i < requests.size(); i++) {
+        List<String> request = requests.get(i);
+        List<Translation> results = responses.get(i);
+        for (int j = 0; j < request.size(); j++) {
+          newTranslations.put(request.get(j), 
+            results.get(j).getTranslatedText());
+        }
+      }
+      translationCache.putAll(newTranslations, languageCode);
+      translations.putAll(newTranslations);
+    }
+
+    return texts.stream()
+      .map(translations::get)
+      .collect(Collectors.toList());
+  }
+
+  /**
+    * Splits `texts` into consecutive groups that each fit within the 
+    * translation API's limits on the number of texts and characters in a 
+    * single request. A text longer than the character limit is sent on 
+    * its own.
+    */
+  private static List<List<String>> toRequests(List<String> texts) {
+    List<List<String>> requests = new ArrayList<List<String>>();
+    List<String> request = new ArrayList<String>();
+    int characters = 0;
+    for (String text : texts) {
+      if (!request.isEmpty() && (request.size() == MAX_TEXTS_PER_REQUEST || 
+        characters + text.length() > MAX_CHARACTERS_PER_REQUEST)) {
+        requests.add(request);
+        request = new ArrayList<String>();
+        characters = 0;
+      }
+      request.add(text);
+      characters += text.length();
+    }
+    if (!request.isEmpty()) {
+      requests.add(request);
     }
+    return requests;
+  }
 
-    Translate translate = TranslateOptions.getDefaultInstance().getService();
-    Translation translation = translate.translate(text, 
-      Translate.TranslateOption.targetLanguage(languageCode));
-    String translatedText = translation.getTranslatedText();
-    return translatedText;
+  /**
+    * Returns the translation of `text` to the language specified by
+    * `languageCode` if it is already cached in memory, without calling
+    * the translation API. Returns `text` if `languageCode` is "none", and
+    * null if no translation is cached.
+    */
+  public static String getCachedTranslation(String text, String languageCode) {
+    if (languageCode.equals("none")) {
+      return text;
+    }
+    return translationCache.getIfPresentInMemory(text, languageCode);
   }
 }
@@ -0,0 +1,63 @@
+package com.google.sps.functionality;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  * A lock-free token bucket, which admits requests at a steady rate while
+  * allowing short bursts. Rather than counting tokens, the bucket keeps
+  * the time at which it would next be full if no more requests were
+  * admitted, so its whole state is a single number updated with
+  * compare-and-set.
+  */
+public class TokenBucket {
+  /** The time it takes for one token to be added to the bucket. */
+  private final long nanosPerToken;
+
+  /** The time it takes for the empty bucket to fill. */
+  private final long nanosToFill;
+
+  /**
+    * The time, in `System.nanoTime()`, at which the bucket is full if no
+    * more requests are admitted. Any time before now means it is full.
+    */
+  private final AtomicLong fullAt;
+
+  /**
+    * @param tokensPerMinute The steady rate at which requests are admitted.
+    * @param capacity The largest burst of requests admitted at once.
+    */
+  public TokenBucket(double tokensPerMinute, int capacity) {
+    this.nanosPerToken =
+      (long) (TimeUnit.MINUTES.toNanos(1) / tokensPerMinute);
+    this.nanosToFill = nanosPerToken * capacity;
+    this.fullAt = new AtomicLong(System.nanoTime() - nanosToFill);
+  }
+
+  /**
+    * Takes a token if there is one, returning 0 if a request may be
+    * admitted now, and otherwise how many nanoseconds until one may be.
+    */
+  public long tryAcquire() {
+    return tryAcquire(System.nanoTime());
+  }
+
+  /**
+    * Takes a token if there is one at time `nowNanos`, returning 0 if a
+    * request may be admitted then, and otherwise how many nanoseconds
+    * until one may be.
+    */
+  public long tryAcquire(long nowNanos) {
+    while (true) {
+      long currentFullAt = fullAt.get();
+      long newFullAt = Math.max(currentFullAt, nowNanos) + nanosPerToken;
+      long waitNanos = newFullAt - nowNanos - nanosToFill;
+      if (waitNanos > 0) {
+        return waitNanos;
+      }
+      if (fullAt.compareAndSet(currentFullAt, newFullAt)) {
+        return 0;
+      }
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package com.google.sps.functionality;
+
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Text;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.sps.data.EntityProperties;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  * A two-tier cache of translations. The first tier is an in-memory LRU
+  * cache; the second is the "Translation" kind in datastore, which outlives
+  * instance restarts and is shared by all instances. Translations are keyed
+  * by the SHA-256 hash of the original text and the target language, and
+  * expire from both tiers after a fixed time to live.
+  */
+public class TranslationCache {
+  /** The default number of translations held in memory. */
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  /** The default time a translation is cached for. */
+  public static final long DEFAULT_TIME_TO_LIVE_MILLIS =
+    TimeUnit.DAYS.toMillis(30);
+
+  public static final TranslationCache TRANSLATION_CACHE_INSTANCE =
+    new TranslationCache(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE_MILLIS);
+
+  private final long timeToLiveMillis;
+  private final Cache<String, String> memoryCache;
+
+  private final AtomicLong memoryHitCount = new AtomicLong();
+  private final AtomicLong datastoreHitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  public TranslationCache(int maxSize, long timeToLiveMillis) {
+    this.timeToLiveMillis = timeToLiveMillis;
+    this.memoryCache = CacheBuilder.newBuilder()
+      .maximumSize(maxSize)
+      .expireAfterWrite(timeToLiveMillis, TimeUnit.MILLISECONDS)
+      .build();
+  }
+
+  /**
+    * Returns the cached translations of each of `texts` to the language
+    * specified by `languageCode`, keyed by original text. Translations that
+    * are not held in memory are read from datastore in a single batch, and 
+    * texts with no cached translation are left out of the result.
+    */
+  public Map<String, String> getAll(Collection<String> texts, 
+    String languageCode) {
+    Map<String, String> translations = new HashMap<String, String>();
+    Map<Key, String> textsByKey = new HashMap<Key, String>();
+    for (String text : texts) {
+      String key = getCacheKey(text, languageCode);
+      String translatedText = memoryCache.getIfPresent(key);
+      if (translatedText != null) {
+        memoryHitCount.incrementAndGet();
+        translations.put(text, translatedText);
+      } else {
+        textsByKey.put(KeyFactory.createKey("Translation", key), text);
+      }
+    }
+    if (textsByKey.isEmpty()) {
+      return translations;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Map<Key, Entity> entities = datastore.get(textsByKey.keySet());
+    textsByKey.forEach((translationKey, text) -> {
+      String translatedText = 
+        getUnexpiredTranslation(entities.get(translationKey));
+      if (translatedText != null) {
+        datastoreHitCount.incrementAndGet();
+        memoryCache.put(translationKey.getName(), translatedText);
+        translations.put(text, translatedText);
+      } else {
+        missCount.incrementAndGet();
+      }
+    });
+    return translations;
+  }
+
+  /**
+    * Returns the translation of `text` to the language specified by
+    * `languageCode` if it is held in memory, or null otherwise. This never
+    * reads datastore, so it is cheap enough to call on every comment that
+    * is searched.
+    */
+  public String getIfPresentInMemory(String text, String languageCode) {
+    return memoryCache.getIfPresent(getCacheKey(text, languageCode));
+  }
+
+  /**
+    * Caches each value of `translations` as the translation of its key to
+    * `languageCode`, writing them to datastore in a single batch.
+    */
+  public void putAll(Map<String, String> translations, String languageCode) {
+    if (translations.isEmpty()) {
+      return;
+    }
+    List<Entity> entities = translations.entrySet().stream()
+      .map(translation -> toEntity(translation.getKey(), languageCode, 
+        translation.getValue()))
+      .collect(Collectors.toList());
+    DatastoreServiceFactory.getDatastoreService().put(entities);
+  }
+
+  /** Returns the number of lookups served from memory. */
+  public long getMemoryHitCount() {
+    return memoryHitCount.get();
+  }
+
+  /** Returns the number of lookups served from datastore. */
+  public long getDatastoreHitCount() {
+    return datastoreHitCount.get();
+  }
+
+  /** Returns the number of lookups that found no cached translation. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+    * Returns the fraction of lookups served by either tier, or 0 if there
+    * have been no lookups.
+    */
+  public double getHitRate() {
+    long hits = memoryHitCount.get() + datastoreHitCount.get();
+    long lookups = hits + missCount.get();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+
+  /**
+    * Caches `translatedText` in memory and returns the entity that caches it
+    * in datastore.
+    */
+  private Entity toEntity(String text, String languageCode, 
+    String translatedText) {
+    String key = getCacheKey(text, languageCode);
+    memoryCache.put(key, translatedText);
+
+    Entity translation = new Entity("Translation", key);
+    translation.setUnindexedProperty(EntityProperties.TRANSLATED_TEXT,
+      new Text(translatedText));
+    translation.setUnindexedProperty(EntityProperties.TRANSLATION_LANGUAGE,
+      languageCode);
+    translation.setUnindexedProperty(EntityProperties.TRANSLATION_TIMESTAMP,
+      System.currentTimeMillis());
+    return translation;
+  }
+
+  /**
+    * Returns the translated text cached by `translation`, or null if
+    * `translation` is null or has expired.
+    */
+  private String getUnexpiredTranslation(Entity translation) {
+    if (translation == null) {
+      return null;
+    }
+    long cachedTime = (long) translation.getProperty(
+      EntityProperties.TRANSLATION_TIMESTAMP);
+    if (System.currentTimeMillis() - cachedTime > timeToLiveMillis) {
+      // Expired entities are overwritten the next time the text is translated.
+      return null;
+    }
+    return ((Text) translation.getProperty(EntityProperties.TRANSLATED_TEXT))
+      .getValue();
+  }
+
+  /** Returns the key `text` is cached under when translated to `languageCode`. */
+  private static String getCacheKey(String text, String languageCode) {
+    return Hashing.sha256().hashString(text, StandardCharsets.UTF_8)
+      + ":" + languageCode;
+  }
+}
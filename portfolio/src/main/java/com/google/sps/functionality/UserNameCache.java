@@ -0,0 +1,136 @@
+package com.google.sps.functionality;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+  * A bounded, concurrent cache of usernames by user id, so that the
+  * usernames of active commenters are resolved from memory rather than
+  * datastore. Users known to have no username are cached too, for a
+  * shorter time, so that they are not looked up again on every render.
+  * Entries expire so that usernames changed through other instances are
+  * picked up.
+  */
+public class UserNameCache {
+  /** The default number of usernames held. */
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  /** The default time a username is trusted for. */
+  public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+
+  /** The default time a user is trusted to have no username for. */
+  public static final long DEFAULT_NEGATIVE_TTL_MILLIS = 60 * 1000;
+
+  public static final UserNameCache USER_NAME_CACHE_INSTANCE =
+    new UserNameCache(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS,
+      DEFAULT_NEGATIVE_TTL_MILLIS);
+
+  private final Cache<String, String> usernames;
+
+  /** The ids of users known to have no username. */
+  private final Cache<String, Boolean> unknownUserIds;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong negativeHitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  public UserNameCache(int maxSize, long ttlMillis, long negativeTtlMillis) {
+    this.usernames = CacheBuilder.newBuilder()
+      .maximumSize(maxSize)
+      .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+      .build();
+    this.unknownUserIds = CacheBuilder.newBuilder()
+      .maximumSize(maxSize)
+      .expireAfterWrite(negativeTtlMillis, TimeUnit.MILLISECONDS)
+      .build();
+  }
+
+  /**
+    * Returns the cached username of the user with id `userId`, the empty
+    * string if they are known to have none, or null if it is not cached.
+    */
+  public String get(String userId) {
+    String username = usernames.getIfPresent(userId);
+    if (username != null) {
+      hitCount.incrementAndGet();
+      return username;
+    }
+    if (unknownUserIds.getIfPresent(userId) != null) {
+      negativeHitCount.incrementAndGet();
+      return "";
+    }
+    missCount.incrementAndGet();
+    return null;
+  }
+
+  /**
+    * Returns the cached usernames of those of `userIds` that are cached,
+    * with the empty string for users known to have none.
+    */
+  public Map<String, String> getAll(Collection<String> userIds) {
+    Map<String, String> cachedUsernames = new HashMap<String, String>();
+    for (String userId : userIds) {
+      String username = get(userId);
+      if (username != null) {
+        cachedUsernames.put(userId, username);
+      }
+    }
+    return cachedUsernames;
+  }
+
+  /**
+    * Caches `username` as the username of the user with id `userId`, or
+    * caches that they have none if `username` is empty.
+    */
+  public void put(String userId, String username) {
+    if (username.isEmpty()) {
+      usernames.invalidate(userId);
+      unknownUserIds.put(userId, true);
+    } else {
+      unknownUserIds.invalidate(userId);
+      usernames.put(userId, username);
+    }
+  }
+
+  /** Removes the user with id `userId` from the cache. */
+  public void invalidate(String userId) {
+    usernames.invalidate(userId);
+    unknownUserIds.invalidate(userId);
+  }
+
+  /** Removes every user from the cache. */
+  public void invalidateAll() {
+    usernames.invalidateAll();
+    unknownUserIds.invalidateAll();
+  }
+
+  /** Returns the number of lookups that found a username. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of lookups that found the user has no username. */
+  public long getNegativeHitCount() {
+    return negativeHitCount.get();
+  }
+
+  /** Returns the number of lookups that found nothing cached. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+    * Returns the fraction of lookups answered by the cache, or 0 if there
+    * have been no lookups.
+    */
+  public double getHitRate() {
+    long hits = hitCount.get() + negativeHitCount.get();
+    long lookups = hits + missCount.get();
+    return lookups == 0 ? 0 : (double) hits / lookups;
+  }
+}
@@ -0,0 +1,63 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import com.google.sps.functionality.TextAnalysisCache;
+import com.google.sps.configuration.Flags;
+
+/**
+  * Servlet that removes expired Natural Language analyses from datastore,
+  * run by cron during quiet hours as scheduled in cron.xml.
+  */
+@WebServlet(Flags.IS_REAL_SERVER ? "/compact-analyses"
+  : "/fakecompact-analyses")
+public class AnalysisCompactionServlet extends HttpServlet {
+
+  /**
+    * How long a run removes analyses for. Analyses left over are removed
+    * by the next run.
+    */
+  private static final long TIME_BUDGET_MILLIS = 5 * 60 * 1000;
+
+  /**
+    * Removes expired analyses a batch at a time until none are left or the
+    * time budget is spent. Only requests made by cron are accepted.
+    */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine removes this header from requests that do not come from
+    // cron.
+    if (request.getHeader("X-Appengine-Cron") == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    long deadline = System.currentTimeMillis() + TIME_BUDGET_MILLIS;
+    int removedCount = 0;
+    int batchCount;
+    do {
+      batchCount = TextAnalysisCache.compactBatch();
+      removedCount += batchCount;
+    } while (batchCount == TextAnalysisCache.COMPACTION_BATCH_SIZE
+      && System.currentTimeMillis() < deadline);
+
+    response.setContentType("text/plain;");
+    response.getWriter().println("Removed " + removedCount + " analyses");
+  }
+}
@@ -25,6 +25,8 @@ import com.google.gson.Gson;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.EntityNotFoundException;
+import com.google.appengine.api.datastore.FetchOptions;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.PreparedQuery;
 import com.google.appengine.api.datastore.Query;
@@ -34,10 +36,19 @@ import com.google.common.base.Strings;
 import com.google.common.collect.Range;
 import com.google.sps.data.EntityProperties;
 import com.google.sps.data.RequestParameters;
+import com.google.sps.functionality.CommentStoreVersion;
+import com.google.sps.functionality.RequestExecutor;
+import com.google.sps.functionality.UserNameCache;
 import java.util.stream.Collectors;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import com.google.common.collect.Lists;
+import com.google.appengine.api.datastore.KeyFactory;
+import java.util.Collections;
 import com.google.sps.configuration.Flags;
 
 /** 
@@ -46,13 +57,35 @@ import com.google.sps.configuration.Flags;
 @WebServlet(Flags.IS_REAL_SERVER ? "/authenticate" : "/fakeauthenticate")
 public class AuthenticationServlet extends HttpServlet {
 
+  /** The largest number of values datastore accepts in a single IN filter. */
+  private static final int MAX_IN_FILTER_VALUES = 30;
+
+  /**
+    * The system property that, once set to false, stops users from being
+    * looked up in legacy User entities.
+    */
+  public static final String LEGACY_USER_LOOKUP_PROPERTY =
+    "com.google.sps.legacyUserLookup";
+
+  private static final UserNameCache userNameCache =
+    UserNameCache.USER_NAME_CACHE_INSTANCE;
+
   /** 
     * Checks whether the user is currently logged in and provides
     * a log-out link and username if so, and a log-in link if not. 
+    * Answers with 304 Not Modified if the request already holds the
+    * current response.
     */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
     UserService userService = UserServiceFactory.getUserService();
+    // Usernames only change along with the comment store version.
+    String eTag = CommentStoreVersion.getETag(CommentStoreVersion.get(),
+      userService.isUserLoggedIn() 
+        ? userService.getCurrentUser().getUserId() : "");
+    if (CommentStoreVersion.respondIfNotModified(request, response, eTag)) {
+      return;
+    }
     HashMap<String, Object> authenticationStatusInfo = 
       new HashMap<String, Object>();
 
@@ -60,7 +93,7 @@ public class AuthenticationServlet extends HttpServlet {
       authenticationStatusInfo.put("isLoggedIn", true);
       String logOutLink = userService.createLogoutURL("/index.html");
       authenticationStatusInfo.put("logOutLink", logOutLink);
-      authenticationStatusInfo.put("username", getUserName(
+      authenticationStatusInfo.put("username", getStoredUserName(
         userService.getCurrentUser().getUserId()));
     } else {
       authenticationStatusInfo.put("isLoggedIn", false);
@@ -79,39 +112,169 @@ public class AuthenticationServlet extends HttpServlet {
     * the empty string.
     */
   public static String getUserName(String userId) {
+    return getUserNames(Collections.singletonList(userId)).get(userId);
+  }
+
+  /**
+    * Returns the username stored in datastore for this user id, bypassing
+    * the username cache, which may be stale on this instance, and caches
+    * it. Responses tagged with the comment store version must not depend
+    * on this instance's cache, as another instance may have answered the
+    * same version with a newer username.
+    */
+  private static String getStoredUserName(String userId) {
+    userNameCache.invalidate(userId);
+    return getUserName(userId);
+  }
+
+  /** 
+    * Returns the usernames currently associated with each of `userIds`, 
+    * from the username cache where possible, and otherwise loaded with a
+    * single batch get of their User entities. Users not yet
+    * migrated to keyed entities are looked up with as few queries as
+    * possible, which run in parallel, and are migrated. User ids that have
+    * no username are mapped to the empty string.
+    */
+  public static Map<String, String> getUserNames(Collection<String> userIds) {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Query query = new Query("User").setFilter(
-      new Query.FilterPredicate(
-        EntityProperties.USER_ID, Query.FilterOperator.EQUAL, userId));
-    Entity user = datastore.prepare(query).asSingleEntity();
+    Map<String, String> cachedUsernames = userNameCache.getAll(userIds);
+    List<String> distinctUserIds = userIds.stream()
+      .filter(userId -> !cachedUsernames.containsKey(userId))
+      .distinct()
+      .collect(Collectors.toList());
+    if (distinctUserIds.isEmpty()) {
+      return cachedUsernames;
+    }
 
-    if (user == null) {
-      return "";
-    } else {
-      return (String) user.getProperty(EntityProperties.USERNAME);
+    Map<String, String> usernames = new HashMap<String, String>();
+    datastore.get(distinctUserIds.stream()
+      .map(AuthenticationServlet::getUserKey)
+      .collect(Collectors.toList()))
+      .values()
+      .forEach(user -> usernames.put(user.getKey().getName(),
+        (String) user.getProperty(EntityProperties.USERNAME)));
+
+    List<String> missingUserIds = distinctUserIds.stream()
+      .filter(userId -> !usernames.containsKey(userId))
+      .collect(Collectors.toList());
+    if (!missingUserIds.isEmpty() && isLegacyLookupEnabled()) {
+      List<Entity> legacyUsers = getLegacyUsers(missingUserIds);
+      legacyUsers.forEach(user -> usernames.put(
+        (String) user.getProperty(EntityProperties.USER_ID), 
+        (String) user.getProperty(EntityProperties.USERNAME)));
+      try {
+        migrateLegacyUsers(legacyUsers);
+      } catch (RuntimeException e) {
+        System.err.println("Failed to migrate users: " + e);
+      }
     }
+
+    distinctUserIds.forEach(userId -> usernames.putIfAbsent(userId, ""));
+    usernames.forEach(userNameCache::put);
+    usernames.putAll(cachedUsernames);
+    return usernames;
   }
 
   /** 
     * Updates the username in the datastore associated with this 
-    * user id to be `newUserName`. 
+    * user id to be `newUserName`, and in the username cache. The stored
+    * username is read with a key get rather than from the cache, which may
+    * be stale on this instance, and nothing is written if it is already
+    * `newUserName`.
     */
   public static void updateUserName(String newUserName, String userId) {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    Query query = new Query("User").setFilter(
-      new Query.FilterPredicate(
-        EntityProperties.USER_ID, Query.FilterOperator.EQUAL, userId));
-    Entity user = datastore.prepare(query).asSingleEntity();
-
-    if (user == null) {
-      Entity newUser = new Entity("User");
-      newUser.setProperty(EntityProperties.USER_ID, userId);
-      newUser.setProperty(EntityProperties.USERNAME, newUserName);
-      datastore.put(newUser);
-    } else if (!((String) user.getProperty(EntityProperties.USERNAME)).equals(newUserName)) {
-      user.setProperty(EntityProperties.USERNAME, newUserName);
-      datastore.put(user);
+    Key userKey = getUserKey(userId);
+    try {
+      Entity storedUser = datastore.get(userKey);
+      if (newUserName.equals(storedUser.getProperty(EntityProperties.USERNAME))) {
+        userNameCache.put(userId, newUserName);
+        return;
+      }
+    } catch (EntityNotFoundException e) {
+      // The user has no keyed entity yet, so one is created.
+    }
+    Entity user = new Entity(userKey);
+    user.setProperty(EntityProperties.USER_ID, userId);
+    user.setProperty(EntityProperties.USERNAME, newUserName);
+    // The cached username is no longer known to be the stored one, even if
+    // the put fails.
+    userNameCache.invalidate(userId);
+    datastore.put(user);
+    userNameCache.put(userId, newUserName);
+  }
+
+  /**
+    * Replaces `legacyUsers`, User entities with generated ids, by User
+    * entities keyed by user id, unless a keyed entity already exists for
+    * the same user, in which case it is newer and is kept. Returns the
+    * number of keyed entities created.
+    */
+  public static int migrateLegacyUsers(List<Entity> legacyUsers) {
+    if (legacyUsers.isEmpty()) {
+      return 0;
+    }
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Map<String, Entity> keyedUsers = new HashMap<String, Entity>();
+    for (Entity legacyUser : legacyUsers) {
+      String userId = 
+        (String) legacyUser.getProperty(EntityProperties.USER_ID);
+      Entity user = new Entity(getUserKey(userId));
+      user.setPropertiesFrom(legacyUser);
+      keyedUsers.put(userId, user);
     }
+    datastore.get(keyedUsers.values().stream()
+      .map(Entity::getKey)
+      .collect(Collectors.toList()))
+      .keySet()
+      .forEach(key -> keyedUsers.remove(key.getName()));
+
+    datastore.put(keyedUsers.values());
+    datastore.delete(legacyUsers.stream()
+      .map(Entity::getKey)
+      .collect(Collectors.toList()));
+    return keyedUsers.size();
+  }
+
+  /** Returns the key of the User entity of the user with id `userId`. */
+  public static Key getUserKey(String userId) {
+    return KeyFactory.createKey("User", userId);
+  }
+
+  /**
+    * Returns true if users may still be stored in legacy User entities,
+    * which have generated ids rather than being keyed by user id. Operators
+    * set the system property `LEGACY_USER_LOOKUP_PROPERTY` to false once
+    * they have been migrated with `UserMigrationServlet`.
+    */
+  private static boolean isLegacyLookupEnabled() {
+    return !"false".equals(System.getProperty(LEGACY_USER_LOOKUP_PROPERTY));
+  }
+
+  /**
+    * Returns the legacy User entities of `userIds`, loaded with as few
+    * datastore queries as possible, which run in parallel.
+    */
+  private static List<Entity> getLegacyUsers(List<String> userIds) {
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    List<Callable<List<Entity>>> queries = 
+      new ArrayList<Callable<List<Entity>>>();
+    for (List<String> batch : 
+      Lists.partition(userIds, MAX_IN_FILTER_VALUES)) {
+      Query query = new Query("User").setFilter(
+        new Query.FilterPredicate(
+          EntityProperties.USER_ID, Query.FilterOperator.IN, batch));
+      // Results are copied so that they are fetched on the worker thread.
+      queries.add(() -> new ArrayList<Entity>(datastore.prepare(query)
+        .asList(FetchOptions.Builder.withDefaults())));
+    }
+
+    List<Entity> legacyUsers = new ArrayList<Entity>();
+    RequestExecutor.invokeAll(queries).forEach(users -> 
+      users.stream()
+        .filter(user -> user.getKey().getName() == null)
+        .forEach(legacyUsers::add));
+    return legacyUsers;
   }
 
 }
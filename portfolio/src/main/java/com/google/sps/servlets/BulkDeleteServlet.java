@@ -0,0 +1,107 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.logging.Logger;
+import com.google.gson.Gson;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.data.EntityProperties;
+import com.google.sps.functionality.BulkDeleteJob;
+
+/**
+  * Servlet that runs the tasks of bulk delete jobs, and reports the
+  * progress of a job to the user who started it.
+  */
+@WebServlet(BulkDeleteJob.DELETION_URL)
+public class BulkDeleteServlet extends HttpServlet {
+
+  private static final Logger logger =
+    Logger.getLogger(BulkDeleteServlet.class.getName());
+
+  /**
+    * Deletes the next batch of comments of the job named by the task.
+    * Only requests made by the task queue are accepted.
+    */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine removes this header from requests that do not come from
+    // the task queue.
+    if (request.getHeader("X-AppEngine-QueueName") == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    try {
+      BulkDeleteJob.runBatch(
+        Long.parseLong(request.getParameter(BulkDeleteJob.JOB_ID_PARAMETER)),
+        Long.parseLong(request.getParameter(BulkDeleteJob.BATCH_PARAMETER)));
+    } catch (NumberFormatException e) {
+      // A malformed task is dropped rather than retried.
+      logger.warning("Malformed deletion task: " + e);
+    }
+  }
+
+  /**
+    * Returns the JSON status of the job with id `jobId`: whether it is
+    * still running, how many comments it has deleted, and when it started
+    * and last made progress. Only the user who started the job, or an
+    * admin, may see it.
+    */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    Entity job;
+    try {
+      job = BulkDeleteJob.getJob(Long.parseLong(
+        request.getParameter(BulkDeleteJob.JOB_ID_PARAMETER)));
+    } catch (NumberFormatException e) {
+      job = null;
+    }
+    if (job == null) {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+    if (!userService.isUserAdmin() && !userService.getCurrentUser()
+      .getUserId().equals(job.getProperty(EntityProperties.USER_ID))) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    HashMap<String, Object> status = new HashMap<String, Object>();
+    status.put("jobId", job.getKey().getId());
+    status.put("status", job.getProperty(EntityProperties.JOB_STATUS));
+    status.put("deletedCount",
+      job.getProperty(EntityProperties.JOB_DELETED_COUNT));
+    status.put("createdTime",
+      job.getProperty(EntityProperties.JOB_CREATED_TIME));
+    status.put("updatedTime",
+      job.getProperty(EntityProperties.JOB_UPDATED_TIME));
+
+    response.setHeader("Cache-Control", "no-store");
+    response.setContentType("application/json;");
+    response.getWriter().println(new Gson().toJson(status));
+  }
+}
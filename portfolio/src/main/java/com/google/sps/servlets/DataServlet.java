@@ -15,121 +15,97 @@
 package com.google.sps.servlets;
 
 import java.io.IOException;
+import javax.servlet.AsyncContext;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import com.google.common.collect.ImmutableList;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
 import com.google.appengine.api.datastore.Entity;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.PreparedQuery;
+import com.google.appengine.api.datastore.PropertyProjection;
 import com.google.appengine.api.datastore.Query;
 import com.google.appengine.api.datastore.Query.SortDirection;
-import java.lang.Math;
 import com.google.common.base.Strings;
-import com.google.common.collect.Range;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentPosition;
+import com.google.sps.data.CommentTypeAdapter;
 import com.google.sps.data.EntityProperties;
 import com.google.sps.data.RequestParameters;
-import com.google.sps.functionality.SentimentAnalyzer;
+import com.google.sps.functionality.CommentCache;
+import com.google.sps.functionality.CommentEnricher;
+import com.google.sps.functionality.CommentSearchIndex;
+import com.google.sps.functionality.CommentStoreVersion;
+import com.google.sps.functionality.CommentTombstones;
+import com.google.sps.functionality.CommentWriteBuffer;
+import com.google.sps.functionality.RequestExecutor;
 import com.google.sps.functionality.TextTranslator;
+import com.google.sps.functionality.UserNameCache;
 import com.google.sps.servlets.AuthenticationServlet;
 import java.util.stream.Collectors;
 import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
-import java.util.HashMap;
-import com.google.cloud.language.v1.LanguageServiceClient;
 import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
 import com.google.sps.configuration.Flags;
 
 /** 
   * Servlet that uploads and retrieves persistent comment data using datastore.
   */
-@WebServlet(Flags.IS_REAL_SERVER ? "/data" : "/fakedata")
+@WebServlet(value = Flags.IS_REAL_SERVER ? "/data" : "/fakedata",
+  asyncSupported = true)
 public class DataServlet extends HttpServlet {
 
-  /** Represents a single comment */
-  private static class Comment {
-      String text;
-      String username;
-      long time;
-      long id;
-      String userId;
-      String email;
-      String sentiment;
-      String topic;
-
-      Comment(String text, String username, long time, long id, 
-        String userId, String email, String sentiment, String topic) {
-        this.text = text;
-        this.username = username;
-        this.time = time;
-        this.id = id;
-        this.userId = userId;
-        this.email = email;
-        this.sentiment = sentiment;
-        this.topic = topic;
-      }
+  /** The number of comments read at a time when building the search index. */
+  private static final int INDEX_CHUNK_SIZE = 500;
 
-      /** 
-        * Returns an entity representing this comment.
-        * This should only be called once per comment, for the
-        * purpose of putting this comment into the database.
-        */
-      Entity toEntity() {
-        Entity commentEntity = new Entity("Comment");
-        commentEntity.setProperty(EntityProperties.COMMENT_TIMESTAMP, time);
-        commentEntity.setProperty(EntityProperties.USER_ID, userId);
-        commentEntity.setProperty(EntityProperties.USER_EMAIL, email);
-
-        try (LanguageServiceClient languageService = 
-          LanguageServiceClient.create()) {
-          commentEntity.setProperty(EntityProperties.COMMENT_SENTIMENT, 
-            SentimentAnalyzer.getSentiment(text, languageService).name());
-          commentEntity.setProperty(EntityProperties.COMMENT_TOPIC, 
-            SentimentAnalyzer.getTopic(text, languageService));
-          commentEntity.setProperty(EntityProperties.COMMENT_TEXT, 
-            SentimentAnalyzer.getHTMLWithNamedEntityLinks(
-              text, languageService));
-        } catch (java.io.IOException e) {
-          commentEntity.setProperty(EntityProperties.COMMENT_TEXT, text);
-          commentEntity.setProperty(EntityProperties.COMMENT_SENTIMENT, 
-            SentimentAnalyzer.SentimentType.NEUTRAL.name());
-          commentEntity.setProperty(EntityProperties.COMMENT_TOPIC, "");
-          System.err.println("Failed to create LanguageServiceClient");
-        }
-        return commentEntity;
-      }
+  /** The longest a request may take, the App Engine request deadline. */
+  private static final long REQUEST_TIMEOUT_MILLIS = 60 * 1000;
 
-      /** Returns a comment representing this entity */
-      static Comment fromEntity(Entity e) {
-        return new Comment(
-          (String) e.getProperty(EntityProperties.COMMENT_TEXT),
-          AuthenticationServlet.getUserName(
-            (String) e.getProperty(EntityProperties.USER_ID)),
-          (long) e.getProperty(EntityProperties.COMMENT_TIMESTAMP), 
-          e.getKey().getId(),
-          (String) e.getProperty(EntityProperties.USER_ID),
-          (String) e.getProperty(EntityProperties.USER_EMAIL),
-          (String) e.getProperty(EntityProperties.COMMENT_SENTIMENT),
-          (String) e.getProperty(EntityProperties.COMMENT_TOPIC));
-      }
+  /** Shared by all requests, as Gson instances are thread-safe. */
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(Comment.class, new CommentTypeAdapter())
+    .create();
+  private static final TypeAdapter<Comment> COMMENT_ADAPTER =
+    GSON.getAdapter(Comment.class);
 
-      /** 
-        * Returns this comment, but with the comment text translated to
-        * the language corresponding to `languageCode`. 
-        */
-      Comment translateComment(String languageCode) {
-        text = TextTranslator.translateText(text, languageCode);
-        return this;
+  private final CommentCache commentCache = 
+    CommentCache.COMMENT_CACHE_INSTANCE;
+  private final CommentSearchIndex searchIndex =
+    CommentSearchIndex.SEARCH_INDEX_INSTANCE;
+  private final CommentWriteBuffer writeBuffer =
+    CommentWriteBuffer.COMMENT_WRITE_BUFFER_INSTANCE;
+
+  /** Represents a single page of comments. */
+  private static class CommentPage {
+      List<Comment> comments;
+      String nextPageToken;
+
+      CommentPage(List<Comment> comments, String nextPageToken) {
+        this.comments = comments;
+        this.nextPageToken = nextPageToken;
       }
   }
 
-  /** Extracts user comment from form and stores it via datastore. */
+  /** 
+    * Extracts user comment from form and stores it via datastore. Its 
+    * sentiment, topic and entity links are computed in the background.
+    * If write-behind is enabled, the comment is stored through the write
+    * buffer, batched with comments posted at about the same time.
+    */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     UserService userService = UserServiceFactory.getUserService();
@@ -148,22 +124,73 @@ public class DataServlet extends HttpServlet {
     long timestamp = System.currentTimeMillis();
     String userId = userService.getCurrentUser().getUserId();
     String email = userService.getCurrentUser().getEmail();
-    AuthenticationServlet.updateUserName(userName, userId);
+    commentCache.updateUserName(userId, userName);
+    searchIndex.updateUserName(userId, userName);
+
+    if (!Strings.isNullOrEmpty(userComment) 
+      && CommentWriteBuffer.isEnabled()) {
+      // The comment and its author's name are stored, and the comment is
+      // published, with the rest of its batch.
+      Entity commentEntity = 
+        (new Comment(userComment, "", timestamp, 0, userId, email, "", ""))
+        .toEntity();
+      if (!writeBehind(commentEntity, userName)) {
+        response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        return;
+      }
+      response.sendRedirect("/index.html");
+      return;
+    }
 
+    AuthenticationServlet.updateUserName(userName, userId);
     if (!Strings.isNullOrEmpty(userComment)) {    
       DatastoreService datastore = 
         DatastoreServiceFactory.getDatastoreService();
-      Key key = datastore.put(
+      Entity commentEntity = 
         (new Comment(userComment, "", timestamp, 0, userId, email, "", ""))
-        .toEntity());
+        .toEntity();
+      datastore.put(commentEntity);
+      Comment comment = Comment.fromEntity(commentEntity, userName);
+      commentCache.add(comment);
+      searchIndex.add(comment);
+      CommentEnricher.enqueue(commentEntity.getKey().getId());
     }
+    CommentStoreVersion.bump();
     response.sendRedirect("/index.html");
   }
 
+  /**
+    * Adds `commentEntity` to the write buffer, waiting for it to be stored
+    * if acknowledgements are durable. Returns false if it could not be
+    * stored.
+    */
+  private boolean writeBehind(Entity commentEntity, String userName) {
+    Future<Void> stored = writeBuffer.write(commentEntity, userName);
+    if (!CommentWriteBuffer.isDurableAckEnabled()) {
+      return true;
+    }
+    try {
+      stored.get();
+      return true;
+    } catch (ExecutionException e) {
+      return false;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
   /** 
-    * Loads all user comments from datastore and returns JSON list of n 
+    * Loads one page of user comments and returns JSON list of at most n 
     * comments, where n is the number of comments the user has requested, 
-    * filtered by any search query the user may have entered.
+    * filtered by any search query the user may have entered. Responses are
+    * tagged with the version of the comment store, and requests that
+    * already hold the current response are answered with 304 Not Modified
+    * without reading any comments. Other requests are processed
+    * asynchronously, on a thread of their own. Pages within the newest
+    * comments are served by the comment cache; older pages are read from
+    * datastore starting at the position given by `pageToken`, so only the
+    * comments on that page (plus a single look-ahead comment) are read.
     */
   @Override
   public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -178,82 +205,332 @@ public class DataServlet extends HttpServlet {
     }
 
     int numberToDisplay = getNumberToDisplay(request); 
-    String paginationInstruction = (String) request.getParameter(
-      RequestParameters.PAGE_ACTION);
     String searchQuery = (String) request.getParameter(
       RequestParameters.SEARCH_QUERY);
     searchQuery = searchQuery.substring(1,searchQuery.length() - 1);
-    int pageToken = Integer.parseInt(
-      (String) request.getParameter(RequestParameters.PAGE_TOKEN));
+    String pageToken = Strings.nullToEmpty(
+      request.getParameter(RequestParameters.PAGE_TOKEN));
     String languageCodeWithQuotes = request
       .getParameter(RequestParameters.LANGUAGE);
     String languageCode = languageCodeWithQuotes
       .substring(1,languageCodeWithQuotes.length() - 1);
 
-    PreparedQuery results = getAllComments();
-    ImmutableList<Comment> unfilteredComments = results
-      .asList(FetchOptions.Builder.withDefaults())
-      .stream()
-      .map(commentEntity -> 
-        Comment.fromEntity(commentEntity).translateComment(languageCode))
-      .collect(ImmutableList.toImmutableList());
-
-    List<Comment> comments = getFilteredComments(unfilteredComments, 
-      searchQuery);
-
-    Range<Integer> commentRange = getRangeOfCommentsToDisplay(
-      paginationInstruction, numberToDisplay, comments.size(), pageToken);
-    List<Comment> commentsToDisplay = 
-      comments.subList(commentRange.lowerEndpoint(), 
-      commentRange.upperEndpoint());
-    int newPageToken = commentRange.lowerEndpoint();
-
-    String json = convertToJson(commentsToDisplay, newPageToken, 
-      currentUserId); 
+    // The version is read before any comments, so a change made while they
+    // are read gives the next request a different tag.
+    long version = CommentStoreVersion.get();
+    String eTag = CommentStoreVersion.getETag(version, currentUserId,
+      Integer.toString(numberToDisplay), searchQuery, pageToken, languageCode);
+    if (CommentStoreVersion.respondIfNotModified(request, response, eTag)) {
+      return;
+    }
+    if (!CommentStoreVersion.isKnown(version)) {
+      // Another instance has changed the comments since they were cached.
+      // The response is tagged with `version`, so nothing held in memory
+      // from before it may be served.
+      commentCache.invalidate();
+      searchIndex.invalidate();
+      UserNameCache.USER_NAME_CACHE_INSTANCE.invalidateAll();
+    }
+
+    // The page is assembled on a thread of this request, releasing the
+    // serving thread while datastore and the translation API are waited on.
+    AsyncContext asyncContext = request.startAsync();
+    asyncContext.setTimeout(REQUEST_TIMEOUT_MILLIS);
+    String search = searchQuery;
+    RequestExecutor.execute(() -> {
+      try {
+        writePage(response, pageToken, numberToDisplay, search, languageCode,
+          currentUserId);
+      } catch (IOException | RuntimeException e) {
+        System.err.println("Failed to load comments: " + e);
+        if (!response.isCommitted()) {
+          response.setStatus(
+            HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+      } finally {
+        asyncContext.complete();
+      }
+    });
+  }
+
+  /** 
+    * Writes the page of comments beginning at `pageToken` that satisfy 
+    * `searchQuery` to the response, translated to the language 
+    * corresponding to `languageCode`.
+    */
+  private void writePage(HttpServletResponse response, String pageToken, 
+    int numberToDisplay, String searchQuery, String languageCode, 
+    String currentUserId) throws IOException {
+    // Comments are filtered and paged before being translated, so only the
+    // comments that are actually displayed are sent to be translated, all 
+    // in one batch.
+    CommentPage page = getPageOfComments(pageToken, numberToDisplay, 
+      searchQuery, languageCode);
+    List<Comment> translatedComments = 
+      Comment.translateComments(page.comments, languageCode);
+
     response.setCharacterEncoding("UTF-8");
     response.setContentType("application/json;");
-    response.getWriter().println(json);
+    writeJson(response, translatedComments, pageToken, page.nextPageToken,
+      currentUserId);
   }
 
-  /** Returns the range of comments that should be displayed on
-    * the site, given the user's instructions (reflecting
-    * whether to jump forward a page, jump backwards, or
-    * stay on the same page of comments).
-    * @param instruction Of the form ""next"", ""previous"", 
-        or ""none"".
+  /** 
+    * Returns the page of comments beginning at `pageToken` that satisfy 
+    * `searchQuery`, in their original language. 
+    * @param languageCode The language the comments will be displayed in, 
+        whose cached translations are also searched.
+    * @param pageToken Either the empty string for the first page, a web-safe 
+        datastore cursor, or an encoded `CommentPosition` of the last 
+        comment of the previous page. 
     * @param numberToDisplay Indicates the desired number of comments
         on the page.
-    * @param totalNumberComments Indicates the number of comments currently
-        in the database.
-    * @param pageToken The current index of the first comment being displayed 
-        on the page. 
-    * @return A range from `startIndex` to `stopIndex + 1`, where
-        startIndex is the index of the first comment that should be displayed
-        and stopIndex is the index of the last comment that should be
-        displayed. */
-  private Range<Integer> getRangeOfCommentsToDisplay(String instruction, 
-    int numberToDisplay, int totalNumberComments, int pageToken) {
-      int startIndex;
-      int stopIndex;
-
-      if (instruction.equals("\"previous\"")) {
-        startIndex = Math.max(0, pageToken - numberToDisplay);
-      } else if (instruction.equals("\"next\"")) {
-        if (pageToken + numberToDisplay >= totalNumberComments) {
-          startIndex = pageToken;
-        } else {
-          startIndex = pageToken + numberToDisplay;
+    * @return The comments on the page, along with the token marking the
+        start of the following page, which is the empty string if there 
+        are no further comments. */
+  private CommentPage getPageOfComments(String pageToken, 
+    int numberToDisplay, String searchQuery, String languageCode) {
+    CommentPosition position = CommentPosition.decode(pageToken);
+    if (Strings.isNullOrEmpty(pageToken) || position != null) {
+      if (!Strings.isNullOrEmpty(searchQuery) && languageCode.equals("none")) {
+        return getPageFromSearchIndex(position, numberToDisplay, searchQuery);
+      }
+      CommentPage page = getPageFromCache(position, numberToDisplay, 
+        searchQuery, languageCode);
+      if (page != null) {
+        commentCache.recordHit();
+        return page;
+      }
+      commentCache.recordMiss();
+    }
+    return getPageFromDatastore(pageToken, position, numberToDisplay, 
+      searchQuery, languageCode);
+  }
+
+  /** 
+    * Returns the page of comments displayed after `position` (or from the 
+    * first comment if `position` is null), read from the comment cache. 
+    * Returns null if the page extends past the comments held by the cache.
+    */
+  private CommentPage getPageFromCache(CommentPosition position, 
+    int numberToDisplay, String searchQuery, String languageCode) {
+    refreshCommentCache();
+    Iterator<Comment> cachedComments = commentCache.getCommentsAfter(position);
+    List<Comment> comments = new ArrayList<Comment>();
+    while (cachedComments.hasNext()) {
+      Comment comment = cachedComments.next();
+      if (!satisfiesSearch(comment, searchQuery, languageCode)) {
+        continue;
+      }
+      if (comments.size() == numberToDisplay) {
+        return new CommentPage(comments, CommentPosition
+          .of(comments.get(comments.size() - 1)).encode());
+      }
+      comments.add(comment);
+    }
+    return commentCache.isComplete() ? new CommentPage(comments, "") : null;
+  }
+
+  /**
+    * Returns the page of comments displayed after `position` (or from the
+    * first comment if `position` is null) that satisfy `searchQuery`, read
+    * from the search index. Searches in another language are not answered
+    * by the index, as they also match cached translations of the comments.
+    */
+  private CommentPage getPageFromSearchIndex(CommentPosition position,
+    int numberToDisplay, String searchQuery) {
+    refreshSearchIndex();
+    List<Comment> comments = 
+      searchIndex.search(searchQuery, position, numberToDisplay + 1);
+    if (comments.size() <= numberToDisplay) {
+      return new CommentPage(comments, "");
+    }
+    comments = comments.subList(0, numberToDisplay);
+    return new CommentPage(comments, CommentPosition
+      .of(comments.get(numberToDisplay - 1)).encode());
+  }
+
+  /** 
+    * Returns the page of comments beginning at `pageToken`, read from 
+    * datastore. If the page starts at a `CommentPosition`, the query is
+    * filtered to begin at that position, and the following page is marked
+    * by a position as well, as cursors are only valid for the query that 
+    * produced them. Pages without a search are found by a projection query
+    * instead, unless they start at a cursor.
+    */
+  private CommentPage getPageFromDatastore(String pageToken, 
+    CommentPosition position, int numberToDisplay, String searchQuery, 
+    String languageCode) {
+    if (Strings.isNullOrEmpty(searchQuery) 
+      && (position != null || Strings.isNullOrEmpty(pageToken))) {
+      return getPageByProjection(position, numberToDisplay);
+    }
+    Query query = getAllCommentsQuery();
+    FetchOptions fetchOptions = 
+      FetchOptions.Builder.withChunkSize(numberToDisplay + 1);
+    if (position != null) {
+      query.setFilter(new Query.FilterPredicate(
+        EntityProperties.COMMENT_TIMESTAMP, 
+        Query.FilterOperator.LESS_THAN_OR_EQUAL, position.time));
+    } else {
+      if (Strings.isNullOrEmpty(searchQuery)) {
+        // Without a search every comment is shown, so one comment past the
+        // end of the page is enough to know whether a next page exists.
+        fetchOptions.limit(numberToDisplay + 1);
+      }
+      Cursor startCursor = decodePageToken(pageToken);
+      if (startCursor != null) {
+        fetchOptions.startCursor(startCursor);
+      }
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    QueryResultIterator<Entity> results = 
+      datastore.prepare(query).asQueryResultIterator(fetchOptions);
+    List<Comment> comments = new ArrayList<Comment>();
+    String nextPageToken = "";
+    while (results.hasNext()) {
+      // Entities are read a chunk at a time so that the usernames of each 
+      // chunk can be loaded together. The cursor after each entity is kept,
+      // as the next page starts after whichever one ends this page.
+      List<Entity> entities = new ArrayList<Entity>();
+      List<Cursor> cursors = new ArrayList<Cursor>();
+      while (results.hasNext() && entities.size() <= numberToDisplay) {
+        entities.add(results.next());
+        cursors.add(position == null ? results.getCursor() : null);
+      }
+      List<Comment> chunk = Comment.fromEntities(entities);
+
+      for (int i = 0; i < chunk.size(); i++) {
+        Comment comment = chunk.get(i);
+        if (position != null && !position.precedes(comment)) {
+          continue;
+        }
+        if (!satisfiesSearch(comment, searchQuery, languageCode)) {
+          continue;
+        }
+        if (comments.size() == numberToDisplay) {
+          // A further matching comment exists, so the page is not the last.
+          return new CommentPage(comments, nextPageToken);
+        }
+        comments.add(comment);
+        if (comments.size() == numberToDisplay) {
+          nextPageToken = position != null 
+            ? CommentPosition.of(comment).encode() 
+            : cursors.get(i).toWebSafeString();
         }
-      } else {
-        startIndex = pageToken;
       }
-      stopIndex = Math.min(totalNumberComments, startIndex + numberToDisplay);
+    }
+    return new CommentPage(comments, "");
+  }
 
-      if (stopIndex <= startIndex) {
-        startIndex = Math.max(0, stopIndex - numberToDisplay);
+  /**
+    * Returns the page of comments displayed after `position` (or from the
+    * first comment if `position` is null), when no search is applied. The
+    * page is found with a projection query reading only the timestamp of
+    * each comment, and only the comments on the page are then read in
+    * full, with a single batch get. The following page is marked by a
+    * position, as cursors of the projection query are not valid for the
+    * full query.
+    */
+  private CommentPage getPageByProjection(CommentPosition position,
+    int numberToDisplay) {
+    Query query = getAllCommentsQuery().addProjection(new PropertyProjection(
+      EntityProperties.COMMENT_TIMESTAMP, Long.class));
+    if (position != null) {
+      query.setFilter(new Query.FilterPredicate(
+        EntityProperties.COMMENT_TIMESTAMP, 
+        Query.FilterOperator.LESS_THAN_OR_EQUAL, position.time));
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Iterator<Entity> results = datastore.prepare(query)
+      .asIterator(FetchOptions.Builder.withChunkSize(numberToDisplay + 1));
+    List<Key> pageKeys = new ArrayList<Key>();
+    boolean hasNextPage = false;
+    while (results.hasNext()) {
+      Entity result = results.next();
+      CommentPosition resultPosition = new CommentPosition(
+        (long) result.getProperty(EntityProperties.COMMENT_TIMESTAMP),
+        result.getKey().getId());
+      if (position != null && position.compareTo(resultPosition) >= 0) {
+        continue;
       }
+      if (pageKeys.size() == numberToDisplay) {
+        hasNextPage = true;
+        break;
+      }
+      pageKeys.add(result.getKey());
+    }
 
-      return Range.closed(startIndex, stopIndex);
+    Map<Key, Entity> pageEntities = datastore.get(pageKeys);
+    // Comments deleted, or replaced by tombstones, since the projection
+    // query ran are left out.
+    List<Comment> comments = Comment.fromEntities(pageKeys.stream()
+      .map(pageEntities::get)
+      .filter(entity -> entity != null
+        && !CommentTombstones.isTombstone(entity))
+      .collect(Collectors.toList()));
+    String nextPageToken = hasNextPage && !comments.isEmpty()
+      ? CommentPosition.of(comments.get(comments.size() - 1)).encode()
+      : "";
+    return new CommentPage(comments, nextPageToken);
+  }
+
+  /** 
+    * Reloads the newest comments into the comment cache if it has not been
+    * loaded yet or has grown stale.
+    */
+  private void refreshCommentCache() {
+    if (!commentCache.needsReload()) {
+      return;
+    }
+    int capacity = commentCache.getCapacity();
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    List<Entity> newestEntities = datastore.prepare(getAllCommentsQuery())
+      .asList(FetchOptions.Builder.withLimit(capacity + 1));
+    List<Comment> newestComments = Comment.fromEntities(
+      newestEntities.subList(0, Math.min(capacity, newestEntities.size())));
+    commentCache.reload(newestComments, newestEntities.size() <= capacity);
+  }
+
+  /**
+    * Rebuilds the search index from every comment in datastore if it has
+    * not been built yet or has grown stale. Comments are read and their 
+    * usernames loaded a chunk at a time.
+    */
+  private void refreshSearchIndex() {
+    if (!searchIndex.needsRebuild()) {
+      return;
+    }
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Iterator<Entity> results = datastore.prepare(getAllCommentsQuery())
+      .asIterator(FetchOptions.Builder.withChunkSize(INDEX_CHUNK_SIZE));
+    List<Comment> allComments = new ArrayList<Comment>();
+    while (results.hasNext()) {
+      List<Entity> entities = new ArrayList<Entity>();
+      while (results.hasNext() && entities.size() < INDEX_CHUNK_SIZE) {
+        entities.add(results.next());
+      }
+      allComments.addAll(Comment.fromEntities(entities));
+    }
+    searchIndex.rebuild(allComments);
+  }
+
+  /** 
+    * Returns the datastore cursor encoded by `pageToken`, or null if 
+    * `pageToken` is empty or not a valid cursor, in which case the first 
+    * page is displayed.
+    */
+  private Cursor decodePageToken(String pageToken) {
+    if (Strings.isNullOrEmpty(pageToken)) {
+      return null;
+    }
+    try {
+      return Cursor.fromWebSafeString(pageToken);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
   }
 
   /** 
@@ -276,54 +553,50 @@ public class DataServlet extends HttpServlet {
     return numberToDisplay;
   }
 
-  /** Returns all user comments stored in datastore. */
-  private PreparedQuery getAllComments() {
-    Query query = new Query("Comment")
+  /** Returns a query for all user comments stored in datastore, newest first. */
+  private Query getAllCommentsQuery() {
+    return new Query("Comment")
       .addSort(EntityProperties.COMMENT_TIMESTAMP, SortDirection.DESCENDING);
-    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
-    return datastore.prepare(query);
-  }
-
-  /** 
-    * Returns all user comments that contain `search` in either
-    * the comment text or author name. 
-    * @param comments List containing all comments in database.
-    * @param search A string to filter the comments by. 
-    */
-  private List<Comment> getFilteredComments( 
-    List<Comment> comments, String search) {
-    List<Comment> filteredComments = comments.stream()
-      .filter(c -> satisfiesSearch(c, search)).collect(Collectors.toList());
-    return filteredComments;
   }
 
   /** 
     * Returns true if this comment contains the search string in the
-    * comment text or author name. 
+    * original comment text, author name, email, or topic. The comment text
+    * is also matched in the language corresponding to `languageCode` if a 
+    * translation to that language is already cached, but comments are never
+    * translated just to be searched. 
     */
-  private boolean satisfiesSearch(Comment comment, String search) {
+  private boolean satisfiesSearch(Comment comment, String search, 
+    String languageCode) {
     if (Strings.isNullOrEmpty(search)) {
       return true;
+    } else if (CommentSearchIndex.matches(comment, search)) {
+      return true;
     } else {
-      return comment.text.contains(search) || 
-        comment.username.contains(search) || comment.email.contains(search) ||
-        comment.topic.contains(search);
+      String translatedText = 
+        TextTranslator.getCachedTranslation(comment.text, languageCode);
+      return translatedText != null && translatedText.contains(search);
     }
   }
 
   /** 
-    * Returns JSON string representation of `data`, `pageToken`, 
-    * and `currentUserId`. 
+    * Writes the JSON representation of `data`, `pageToken`, `nextPageToken`, 
+    * and `currentUserId` straight to the response, one comment at a time.
     */
-  private String convertToJson(List<Comment> data, int pageToken, 
-    String currentUserId) {
-    HashMap<String, Object> combineData = new HashMap<String, Object>();
-    combineData.put("pageToken", pageToken);
-    combineData.put("commentData", data);
-    combineData.put("currentUserId", currentUserId);
-
-    Gson gson = new Gson(); 
-    String json = gson.toJson(combineData);
-    return json;
+  private void writeJson(HttpServletResponse response, List<Comment> data, 
+    String pageToken, String nextPageToken, String currentUserId) 
+    throws IOException {
+    JsonWriter writer = GSON.newJsonWriter(response.getWriter());
+    writer.beginObject();
+    writer.name("pageToken").value(pageToken);
+    writer.name("nextPageToken").value(nextPageToken);
+    writer.name("commentData").beginArray();
+    for (Comment comment : data) {
+      COMMENT_ADAPTER.write(writer, comment);
+    }
+    writer.endArray();
+    writer.name("currentUserId").value(currentUserId);
+    writer.endObject();
+    writer.flush();
   }
 }
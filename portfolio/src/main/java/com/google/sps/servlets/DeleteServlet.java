@@ -20,6 +20,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.util.ArrayList;
+import java.util.HashMap;
 import com.google.gson.Gson;
 import com.google.appengine.api.datastore.DatastoreService;
 import com.google.appengine.api.datastore.DatastoreServiceFactory;
@@ -33,6 +34,11 @@ import com.google.appengine.api.users.UserService;
 import com.google.appengine.api.users.UserServiceFactory;
 import com.google.sps.data.RequestParameters;
 import com.google.sps.data.EntityProperties;
+import com.google.sps.functionality.BulkDeleteJob;
+import com.google.sps.functionality.CommentCache;
+import com.google.sps.functionality.CommentSearchIndex;
+import com.google.sps.functionality.CommentStoreVersion;
+import com.google.sps.functionality.CommentTombstones;
 import com.google.sps.servlets.AuthenticationServlet;
 import com.google.sps.configuration.Flags;
 
@@ -41,8 +47,10 @@ import com.google.sps.configuration.Flags;
 public class DeleteServlet extends HttpServlet {
 
   /** Deletes comments from datastore subject to query string. If
-    * `whichData="all"` then all comments are deleted. If `whichData`
-    * is a specific comment id, that comment is deleted. */
+    * `whichData="all"` then a background job is started to delete all of
+    * the user's comments, or all comments if the user is an admin, and its
+    * id is returned. If `whichData` is a specific comment id, that comment
+    * is deleted, or replaced by a tombstone if soft deletes are enabled. */
   @Override
   public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
     DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
@@ -56,20 +64,28 @@ public class DeleteServlet extends HttpServlet {
       (String) request.getParameter(RequestParameters.WHICH_COMMENT_TO_DELETE);
 
     if (whichCommentToDelete.equals("\"all\"")) {
-      Query query = new Query("Comment");
-      PreparedQuery results = datastore.prepare(query);
-      results.asIterable().forEach(comment -> {
-        if (currentUserId.equals((String) comment.getProperty(
-          EntityProperties.USER_ID)) || 
-          userService.isUserAdmin()) {
-          datastore.delete(comment.getKey());
-        }
-      });
+      // The comments are deleted in the background, as there may be too
+      // many to delete before the request deadline.
+      long jobId = BulkDeleteJob.start(
+        userService.isUserAdmin() ? null : currentUserId);
+      HashMap<String, Object> job = new HashMap<String, Object>();
+      job.put("jobId", jobId);
+      job.put("statusUrl", BulkDeleteJob.DELETION_URL + "?"
+        + BulkDeleteJob.JOB_ID_PARAMETER + "=" + jobId);
+      response.setContentType("application/json;");
+      response.getWriter().println(new Gson().toJson(job));
+      return;
+    }
+
+    long id = Long.parseLong(whichCommentToDelete);
+    if (CommentTombstones.isEnabled()) {
+      CommentTombstones.markDeleted(id);
     } else {
-      long id = Long.parseLong(whichCommentToDelete);
       Key key = KeyFactory.createKey("Comment", id);
       datastore.delete(key);
+      CommentCache.COMMENT_CACHE_INSTANCE.remove(id);
+      CommentSearchIndex.SEARCH_INDEX_INSTANCE.remove(id);
     }
+    CommentStoreVersion.bump();
   }
-
 }
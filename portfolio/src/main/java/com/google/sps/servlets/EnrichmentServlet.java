@@ -0,0 +1,180 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Transaction;
+import com.google.appengine.api.datastore.TransactionOptions;
+import com.google.sps.data.Comment;
+import com.google.sps.functionality.CommentCache;
+import com.google.sps.functionality.CommentEnricher;
+import com.google.sps.functionality.CommentSearchIndex;
+import com.google.sps.functionality.CommentStoreVersion;
+import com.google.sps.functionality.CommentTombstones;
+
+/**
+  * Servlet that handles the tasks of the enrichment queue, computing the
+  * sentiment, topic and entity links of newly posted comments.
+  */
+@WebServlet(CommentEnricher.ENRICHMENT_URL)
+public class EnrichmentServlet extends HttpServlet {
+
+  /** The number of retries the enrichment queue allows, as in queue.xml. */
+  private static final int TASK_RETRY_LIMIT = 5;
+
+  /**
+    * Enriches the comments named by the task that are still waiting to be
+    * enriched, or were only enriched locally, and stores them in a single
+    * batch.
+    * Responds with an error if any of them could not be enriched, so that
+    * the task is retried, until the last retry, when they are marked as
+    * failed instead. Only requests made by the task queue are accepted.
+    */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine removes this header from requests that do not come from
+    // the task queue.
+    if (request.getHeader("X-AppEngine-QueueName") == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    int retryCount = getRetryCount(request);
+
+    List<Entity> pendingComments = getPendingComments(
+      request.getParameterValues(CommentEnricher.COMMENT_ID_PARAMETER));
+    if (pendingComments.isEmpty()) {
+      return;
+    }
+
+    List<Entity> enrichedComments = new ArrayList<Entity>();
+    List<Entity> failedComments = new ArrayList<Entity>();
+    for (Entity comment : pendingComments) {
+      try {
+        CommentEnricher.enrich(comment);
+        enrichedComments.add(comment);
+      } catch (RuntimeException e) {
+        System.err.println("Failed to enrich comment: " + e);
+        failedComments.add(comment);
+      }
+    }
+
+    boolean isLastAttempt = retryCount >= TASK_RETRY_LIMIT;
+    if (isLastAttempt) {
+      failedComments.forEach(CommentEnricher::markFailed);
+      enrichedComments.addAll(failedComments);
+    }
+    storeEnrichedComments(enrichedComments);
+
+    if (!failedComments.isEmpty() && !isLastAttempt) {
+      response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+  }
+
+  /**
+    * Returns those of the comments with ids `commentIds` that still need
+    * to be enriched, fetched in a single batch get. Comments that have been
+    * deleted or already enriched by another task are left out.
+    */
+  private List<Entity> getPendingComments(String[] commentIds) {
+    List<Entity> pendingComments = new ArrayList<Entity>();
+    if (commentIds == null) {
+      return pendingComments;
+    }
+    List<Key> keys = new ArrayList<Key>();
+    for (String commentId : commentIds) {
+      try {
+        keys.add(KeyFactory.createKey("Comment", Long.parseLong(commentId)));
+      } catch (NumberFormatException e) {
+        System.err.println("Malformed comment id in task: " + commentId);
+      }
+    }
+    if (keys.size() > CommentEnricher.BATCH_SIZE) {
+      keys = keys.subList(0, CommentEnricher.BATCH_SIZE);
+    }
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    for (Entity comment : datastore.get(keys).values()) {
+      if (CommentEnricher.needsEnrichment(comment)) {
+        pendingComments.add(comment);
+      }
+    }
+    return pendingComments;
+  }
+
+  /**
+    * Stores `enrichedComments` in a single batch, skipping any that were
+    * deleted, or replaced by tombstones, while they were being enriched,
+    * and updates the comments held in memory. The comments are checked
+    * and stored in one cross-group transaction, so a comment deleted in
+    * the meantime is never written back.
+    */
+  private void storeEnrichedComments(List<Entity> enrichedComments) {
+    if (enrichedComments.isEmpty()) {
+      return;
+    }
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Transaction transaction = datastore.beginTransaction(
+      TransactionOptions.Builder.withXG(true));
+    List<Entity> commentsToStore;
+    try {
+      Map<Key, Entity> existingComments = datastore.get(transaction,
+        enrichedComments.stream()
+          .map(Entity::getKey)
+          .collect(Collectors.toList()));
+      commentsToStore = enrichedComments.stream()
+        .filter(comment -> existingComments.containsKey(comment.getKey())
+          && !CommentTombstones.isTombstone(
+            existingComments.get(comment.getKey())))
+        .collect(Collectors.toList());
+      if (commentsToStore.isEmpty()) {
+        return;
+      }
+      datastore.put(transaction, commentsToStore);
+      transaction.commit();
+    } finally {
+      if (transaction.isActive()) {
+        transaction.rollback();
+      }
+    }
+
+    for (Comment comment : Comment.fromEntities(commentsToStore)) {
+      CommentCache.COMMENT_CACHE_INSTANCE.replace(comment);
+      CommentSearchIndex.SEARCH_INDEX_INSTANCE.replace(comment);
+    }
+    CommentStoreVersion.bump();
+  }
+
+  /** Returns the number of times the task queue has retried this task. */
+  private int getRetryCount(HttpServletRequest request) {
+    try {
+      return Integer.parseInt(
+        request.getHeader("X-AppEngine-TaskRetryCount"));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+import com.google.sps.functionality.CommentEnricher;
+import com.google.sps.functionality.LanguageServiceManager;
+import com.google.sps.configuration.Flags;
+
+/**
+  * Servlet that queues comments left waiting to be enriched, as when the
+  * task for them could not be added, and comments only enriched locally
+  * once the Natural Language API is available again, run by cron as
+  * scheduled in cron.xml.
+  */
+@WebServlet(Flags.IS_REAL_SERVER ? "/sweep-enrichment"
+  : "/fakesweep-enrichment")
+public class EnrichmentSweepServlet extends HttpServlet {
+
+  /** The most comments queued by a single run. */
+  private static final int SWEEP_LIMIT = 500;
+
+  /**
+    * Adds enrichment tasks for comments that have been pending for too
+    * long, and for locally enriched comments if the API is available. Only
+    * requests made by cron are accepted.
+    */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    // App Engine removes this header from requests that do not come from
+    // cron.
+    if (request.getHeader("X-Appengine-Cron") == null) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    List<Long> commentIds =
+      CommentEnricher.getStaleCommentIds(SWEEP_LIMIT,
+        LanguageServiceManager.LANGUAGE_SERVICE_INSTANCE.isApiAvailable());
+    if (!commentIds.isEmpty()) {
+      CommentEnricher.enqueueAll(commentIds);
+    }
+
+    response.setContentType("text/plain;");
+    response.getWriter().println("Queued " + commentIds.size()
+      + " comments");
+  }
+}
@@ -0,0 +1,287 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.common.base.Strings;
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentTypeAdapter;
+import com.google.sps.functionality.CommentCache;
+import com.google.sps.functionality.CommentEnricher;
+import com.google.sps.functionality.CommentSearchIndex;
+import com.google.sps.functionality.CommentStoreVersion;
+import com.google.sps.servlets.AuthenticationServlet;
+import com.google.sps.configuration.Flags;
+
+/**
+  * Servlet that imports comments in bulk, for migrations from other
+  * systems. Comments are stored in batches rather than one per request,
+  * and are enriched in the background once they are all stored.
+  */
+@WebServlet(Flags.IS_REAL_SERVER ? "/import" : "/fakeimport")
+public class ImportServlet extends HttpServlet {
+
+  /** The most entities datastore accepts in a single put. */
+  private static final int MAX_BATCH_SIZE = 500;
+
+  /**
+    * The most bytes of entities stored in a single put, well within
+    * datastore's limit on the size of a request.
+    */
+  private static final int MAX_BATCH_BYTES = 5 * 1024 * 1024;
+
+  /** The longest comment text datastore stores as an indexed string. */
+  private static final int MAX_TEXT_BYTES = 1500;
+
+  /** Shared by all requests, as Gson instances are thread-safe. */
+  private static final Gson GSON = new GsonBuilder()
+    .registerTypeAdapter(Comment.class, new CommentTypeAdapter())
+    .create();
+  private static final TypeAdapter<Comment> COMMENT_ADAPTER =
+    GSON.getAdapter(Comment.class);
+  private static final TypeAdapter<JsonElement> ELEMENT_ADAPTER =
+    GSON.getAdapter(JsonElement.class);
+
+  /** The outcome of importing a single comment. */
+  private static class ImportResult {
+    final int index;
+    long id;
+    String error;
+
+    ImportResult(int index) {
+      this.index = index;
+    }
+  }
+
+  /**
+    * Comments read from the request but not yet stored, which are stored
+    * together once the batch is full.
+    */
+  private static class Batch {
+    final List<Entity> entities = new ArrayList<Entity>();
+    final List<ImportResult> results = new ArrayList<ImportResult>();
+    int bytes = 0;
+  }
+
+  /**
+    * Imports the comments in the request body, which is either a JSON
+    * array of comments or newline-delimited JSON with one comment per
+    * line. Each comment is an object with the same fields as the comments
+    * returned by `DataServlet`, of which only "text" and "userId" are
+    * required. The body is read one comment at a time, and the comments are
+    * stored in batches of at most `MAX_BATCH_SIZE` entities and
+    * `MAX_BATCH_BYTES` bytes. Responds with the outcome of each comment, in
+    * order: its new id, or why it could not be imported. Only admins may
+    * import comments.
+    */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    List<ImportResult> results = new ArrayList<ImportResult>();
+    List<Long> importedIds = new ArrayList<Long>();
+    Map<String, String> usernames = new HashMap<String, String>();
+    Batch batch = new Batch();
+    String parseError = null;
+
+    JsonReader reader = new JsonReader(request.getReader());
+    // Lenient readers accept a sequence of top-level values, as in NDJSON.
+    reader.setLenient(true);
+    try {
+      boolean isArray = reader.peek() == JsonToken.BEGIN_ARRAY;
+      if (isArray) {
+        reader.beginArray();
+      }
+      while (isArray
+        ? reader.hasNext()
+        : reader.peek() != JsonToken.END_DOCUMENT) {
+        // Each comment is read whole before it is converted, so a comment
+        // with fields of the wrong type fails alone.
+        JsonElement element = ELEMENT_ADAPTER.read(reader);
+        ImportResult result = new ImportResult(results.size());
+        results.add(result);
+        Entity entity = toEntity(element, result, usernames);
+        if (entity == null) {
+          continue;
+        }
+        int bytes = estimateSize(entity);
+        if (batch.entities.size() == MAX_BATCH_SIZE
+          || batch.bytes + bytes > MAX_BATCH_BYTES) {
+          storeBatch(batch, importedIds);
+          batch = new Batch();
+        }
+        batch.entities.add(entity);
+        batch.results.add(result);
+        batch.bytes += bytes;
+      }
+    } catch (IOException | JsonParseException | IllegalStateException e) {
+      // The body is malformed past this point, so the rest of it is lost.
+      parseError = "Malformed JSON after comment " + results.size() + ": "
+        + e.getMessage();
+    }
+    storeBatch(batch, importedIds);
+
+    if (!importedIds.isEmpty()) {
+      usernames.forEach((userId, username) ->
+        AuthenticationServlet.updateUserName(username, userId));
+      CommentEnricher.enqueueAll(importedIds);
+      // Imported comments may be older than those already held in memory,
+      // so the cache and index are rebuilt rather than added to.
+      CommentCache.COMMENT_CACHE_INSTANCE.invalidate();
+      CommentSearchIndex.SEARCH_INDEX_INSTANCE.invalidate();
+      CommentStoreVersion.bump();
+    }
+
+    response.setCharacterEncoding("UTF-8");
+    response.setContentType("application/json;");
+    writeJson(response, results, importedIds.size(), parseError);
+  }
+
+  /**
+    * Returns the unenriched entity of the comment represented by `element`,
+    * or null if it cannot be imported, in which case `result` records why.
+    * Records the comment's username, if it has one, in `usernames`.
+    */
+  private Entity toEntity(JsonElement element, ImportResult result,
+    Map<String, String> usernames) {
+    Comment comment;
+    try {
+      comment = COMMENT_ADAPTER.fromJsonTree(element);
+    } catch (JsonParseException | IllegalStateException
+      | NumberFormatException e) {
+      result.error = "Malformed comment: " + e.getMessage();
+      return null;
+    }
+    if (comment == null || Strings.isNullOrEmpty(comment.text)) {
+      result.error = "Missing text";
+      return null;
+    }
+    if (Strings.isNullOrEmpty(comment.userId)) {
+      result.error = "Missing userId";
+      return null;
+    }
+    String text = comment.text.trim();
+    if (text.getBytes(StandardCharsets.UTF_8).length > MAX_TEXT_BYTES) {
+      result.error = "Text is longer than " + MAX_TEXT_BYTES + " bytes";
+      return null;
+    }
+    if (!Strings.isNullOrEmpty(comment.username)) {
+      usernames.put(comment.userId, comment.username.trim());
+    }
+    long time = comment.time > 0 ? comment.time : System.currentTimeMillis();
+    return new Comment(text, "", time, 0, comment.userId,
+      Strings.nullToEmpty(comment.email), "", "").toEntity();
+  }
+
+  /**
+    * Stores the entities of `batch` in a single put, recording the id of
+    * each in its result and in `importedIds`. If the put fails, every
+    * comment in the batch is recorded as failed.
+    */
+  private void storeBatch(Batch batch, List<Long> importedIds) {
+    if (batch.entities.isEmpty()) {
+      return;
+    }
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    try {
+      datastore.put(batch.entities);
+    } catch (RuntimeException e) {
+      System.err.println("Failed to store imported comments: " + e);
+      batch.results.forEach(result ->
+        result.error = "Failed to store comment: " + e.getMessage());
+      return;
+    }
+    for (int i = 0; i < batch.entities.size(); i++) {
+      long id = batch.entities.get(i).getKey().getId();
+      batch.results.get(i).id = id;
+      importedIds.add(id);
+    }
+  }
+
+  /**
+    * Returns an upper bound on the stored size of `entity`: the size of
+    * each property's name and value, plus a fixed overhead for the key and
+    * each property.
+    */
+  private static int estimateSize(Entity entity) {
+    int bytes = 64;
+    for (Map.Entry<String, Object> property
+      : entity.getProperties().entrySet()) {
+      bytes += 16 + property.getKey().length();
+      Object value = property.getValue();
+      bytes += value instanceof String
+        ? ((String) value).getBytes(StandardCharsets.UTF_8).length
+        : 8;
+    }
+    return bytes;
+  }
+
+  /**
+    * Writes the number of comments imported and failed, the reason the
+    * body could not be read to the end if there is one, and the outcome of
+    * each comment to the response.
+    */
+  private void writeJson(HttpServletResponse response,
+    List<ImportResult> results, int importedCount, String parseError)
+    throws IOException {
+    JsonWriter writer = GSON.newJsonWriter(response.getWriter());
+    writer.beginObject();
+    writer.name("imported").value(importedCount);
+    writer.name("failed").value(results.size() - importedCount);
+    if (parseError != null) {
+      writer.name("error").value(parseError);
+    }
+    writer.name("results").beginArray();
+    for (ImportResult result : results) {
+      writer.beginObject();
+      writer.name("index").value(result.index);
+      if (result.error == null) {
+        writer.name("id").value(result.id);
+      } else {
+        writer.name("error").value(result.error);
+      }
+      writer.endObject();
+    }
+    writer.endArray();
+    writer.endObject();
+    writer.flush();
+  }
+}
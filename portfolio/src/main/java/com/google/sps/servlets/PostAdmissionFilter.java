@@ -0,0 +1,168 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.sps.functionality.TokenBucket;
+import com.google.sps.configuration.Flags;
+
+/**
+  * Filter that limits how quickly comments are posted, so that a single
+  * user or bot cannot flood the comment section or use up the quotas of
+  * the Natural Language API, which enriches each comment. Each user may
+  * post at a steady rate, set by the system property
+  * `POSTS_PER_MINUTE_PROPERTY`, with bursts of up to
+  * `POST_BURST_PROPERTY` posts. Across all users, at most
+  * `MAX_CONCURRENT_POSTS_PROPERTY` posts are processed at once by an
+  * instance. Posts over either limit are answered with 429 Too Many
+  * Requests and a Retry-After header, without being processed.
+  */
+@WebFilter(urlPatterns = Flags.IS_REAL_SERVER ? "/data" : "/fakedata",
+  asyncSupported = true)
+public class PostAdmissionFilter implements Filter {
+
+  /** The system property setting how many posts a user makes a minute. */
+  public static final String POSTS_PER_MINUTE_PROPERTY =
+    "com.google.sps.postsPerMinute";
+
+  /** The system property setting how many posts a user makes at once. */
+  public static final String POST_BURST_PROPERTY =
+    "com.google.sps.postBurst";
+
+  /**
+    * The system property setting how many posts an instance processes at
+    * once, across all users.
+    */
+  public static final String MAX_CONCURRENT_POSTS_PROPERTY =
+    "com.google.sps.maxConcurrentPosts";
+
+  private static final int DEFAULT_POSTS_PER_MINUTE = 10;
+  private static final int DEFAULT_POST_BURST = 5;
+  private static final int DEFAULT_MAX_CONCURRENT_POSTS = 32;
+
+  /** How long a user's bucket is kept after their last post. */
+  private static final long BUCKET_IDLE_MINUTES = 10;
+
+  /** The Retry-After sent when too many posts are being processed. */
+  private static final long BUSY_RETRY_AFTER_SECONDS = 1;
+
+  private static final AtomicLong admittedCount = new AtomicLong();
+  private static final AtomicLong rateLimitedCount = new AtomicLong();
+  private static final AtomicLong concurrencyLimitedCount = new AtomicLong();
+
+  private final int postsPerMinute = Integer.getInteger(
+    POSTS_PER_MINUTE_PROPERTY, DEFAULT_POSTS_PER_MINUTE);
+  private final int postBurst = Integer.getInteger(
+    POST_BURST_PROPERTY, DEFAULT_POST_BURST);
+  private final Semaphore postPermits = new Semaphore(Integer.getInteger(
+    MAX_CONCURRENT_POSTS_PROPERTY, DEFAULT_MAX_CONCURRENT_POSTS));
+
+  /** The token bucket of each user who has posted recently, by user id. */
+  private final Cache<String, TokenBucket> buckets = CacheBuilder.newBuilder()
+    .expireAfterAccess(BUCKET_IDLE_MINUTES, TimeUnit.MINUTES)
+    .build();
+
+  /**
+    * Admits the request if it is not a post, or is a post by a user who
+    * has a token left while fewer than the maximum number of posts are
+    * being processed. Posts by users who are not logged in are passed on
+    * to be turned away by `DataServlet`.
+    */
+  @Override
+  public void doFilter(ServletRequest servletRequest,
+    ServletResponse servletResponse, FilterChain chain)
+    throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest) servletRequest;
+    HttpServletResponse response = (HttpServletResponse) servletResponse;
+    UserService userService = UserServiceFactory.getUserService();
+    if (!"POST".equals(request.getMethod()) || !userService.isUserLoggedIn()) {
+      chain.doFilter(request, response);
+      return;
+    }
+
+    long waitNanos = getBucket(userService.getCurrentUser().getUserId())
+      .tryAcquire();
+    if (waitNanos > 0) {
+      rateLimitedCount.incrementAndGet();
+      rejectAsTooManyRequests(response,
+        (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)
+          / TimeUnit.SECONDS.toNanos(1));
+      return;
+    }
+    if (!postPermits.tryAcquire()) {
+      concurrencyLimitedCount.incrementAndGet();
+      rejectAsTooManyRequests(response, BUSY_RETRY_AFTER_SECONDS);
+      return;
+    }
+    try {
+      admittedCount.incrementAndGet();
+      chain.doFilter(request, response);
+    } finally {
+      postPermits.release();
+    }
+  }
+
+  /** Returns the number of posts admitted. */
+  public static long getAdmittedCount() {
+    return admittedCount.get();
+  }
+
+  /** Returns the number of posts rejected because a user posted too often. */
+  public static long getRateLimitedCount() {
+    return rateLimitedCount.get();
+  }
+
+  /**
+    * Returns the number of posts rejected because too many posts were
+    * being processed.
+    */
+  public static long getConcurrencyLimitedCount() {
+    return concurrencyLimitedCount.get();
+  }
+
+  /** Returns the token bucket of the user with id `userId`. */
+  private TokenBucket getBucket(String userId) {
+    try {
+      return buckets.get(userId,
+        () -> new TokenBucket(postsPerMinute, postBurst));
+    } catch (ExecutionException e) {
+      // Creating a bucket does not throw.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void rejectAsTooManyRequests(HttpServletResponse response,
+    long retryAfterSeconds) throws IOException {
+    response.setHeader("Retry-After", Long.toString(retryAfterSeconds));
+    // HttpServletResponse has no constant for 429 Too Many Requests.
+    response.sendError(429);
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import com.google.gson.Gson;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.functionality.CommentCache;
+import com.google.sps.functionality.CommentWriteBuffer;
+import com.google.sps.functionality.LanguageServiceManager;
+import com.google.sps.functionality.TextAnalysisCache;
+import com.google.sps.functionality.TranslationCache;
+import com.google.sps.functionality.UserNameCache;
+import com.google.sps.configuration.Flags;
+
+/**
+  * Servlet that reports the counters kept by this instance's caches, write
+  * buffer and post admission filter, so that operators can see how well
+  * they are working. Counters start from zero when the instance starts.
+  */
+@WebServlet(Flags.IS_REAL_SERVER ? "/stats" : "/fakestats")
+public class StatsServlet extends HttpServlet {
+
+  /** Responds with the counters as JSON. Only admins may see them. */
+  @Override
+  public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    Map<String, Object> stats = new LinkedHashMap<String, Object>();
+
+    CommentCache commentCache = CommentCache.COMMENT_CACHE_INSTANCE;
+    Map<String, Object> comments = new LinkedHashMap<String, Object>();
+    comments.put("hits", commentCache.getHitCount());
+    comments.put("misses", commentCache.getMissCount());
+    comments.put("evictions", commentCache.getEvictionCount());
+    stats.put("commentCache", comments);
+
+    TranslationCache translationCache =
+      TranslationCache.TRANSLATION_CACHE_INSTANCE;
+    Map<String, Object> translations = new LinkedHashMap<String, Object>();
+    translations.put("memoryHits", translationCache.getMemoryHitCount());
+    translations.put("datastoreHits", translationCache.getDatastoreHitCount());
+    translations.put("misses", translationCache.getMissCount());
+    translations.put("hitRate", translationCache.getHitRate());
+    stats.put("translationCache", translations);
+
+    TextAnalysisCache analysisCache =
+      TextAnalysisCache.TEXT_ANALYSIS_CACHE_INSTANCE;
+    Map<String, Object> analyses = new LinkedHashMap<String, Object>();
+    analyses.put("memoryHits", analysisCache.getMemoryHitCount());
+    analyses.put("datastoreHits", analysisCache.getDatastoreHitCount());
+    analyses.put("misses", analysisCache.getMissCount());
+    analyses.put("hitRate", analysisCache.getHitRate());
+    analyses.put("localAnalyses", LanguageServiceManager
+      .LANGUAGE_SERVICE_INSTANCE.getLocalAnalysisCount());
+    stats.put("textAnalysisCache", analyses);
+
+    UserNameCache userNameCache = UserNameCache.USER_NAME_CACHE_INSTANCE;
+    Map<String, Object> usernames = new LinkedHashMap<String, Object>();
+    usernames.put("hits", userNameCache.getHitCount());
+    usernames.put("negativeHits", userNameCache.getNegativeHitCount());
+    usernames.put("misses", userNameCache.getMissCount());
+    usernames.put("hitRate", userNameCache.getHitRate());
+    stats.put("userNameCache", usernames);
+
+    Map<String, Object> admission = new LinkedHashMap<String, Object>();
+    admission.put("admitted", PostAdmissionFilter.getAdmittedCount());
+    admission.put("rateLimited", PostAdmissionFilter.getRateLimitedCount());
+    admission.put("concurrencyLimited",
+      PostAdmissionFilter.getConcurrencyLimitedCount());
+    stats.put("postAdmission", admission);
+
+    CommentWriteBuffer writeBuffer =
+      CommentWriteBuffer.COMMENT_WRITE_BUFFER_INSTANCE;
+    Map<String, Object> writes = new LinkedHashMap<String, Object>();
+    writes.put("queued", writeBuffer.getQueuedCount());
+    writes.put("batches", writeBuffer.getBatchCount());
+    writes.put("stored", writeBuffer.getStoredCount());
+    writes.put("backpressured", writeBuffer.getBackpressureCount());
+    stats.put("writeBuffer", writes);
+
+    response.setContentType("application/json;");
+    response.getWriter().println(new Gson().toJson(stats));
+  }
+}
@@ -0,0 +1,87 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     https://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.sps.servlets;
+
+import java.io.IOException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import com.google.gson.Gson;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.users.UserService;
+import com.google.appengine.api.users.UserServiceFactory;
+import com.google.sps.servlets.AuthenticationServlet;
+import com.google.sps.configuration.Flags;
+
+/**
+  * Servlet that migrates legacy User entities, which have generated ids,
+  * to User entities keyed by user id, so that usernames are read with key
+  * lookups rather than queries. Users are also migrated one at a time as
+  * they are read; this servlet migrates the rest, after which operators
+  * can turn off lookups of legacy users.
+  */
+@WebServlet(Flags.IS_REAL_SERVER ? "/migrate-users" : "/fakemigrate-users")
+public class UserMigrationServlet extends HttpServlet {
+
+  /** The number of User entities read and migrated at a time. */
+  private static final int MIGRATION_CHUNK_SIZE = 500;
+
+  /**
+    * Migrates every legacy User entity, a chunk at a time, and responds
+    * with the number of legacy entities found and keyed entities created.
+    * Safe to run more than once. Only admins may run the migration.
+    */
+  @Override
+  public void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    UserService userService = UserServiceFactory.getUserService();
+    if (!userService.isUserLoggedIn() || !userService.isUserAdmin()) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+
+    DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+    Iterator<Entity> users = datastore.prepare(new Query("User"))
+      .asIterator(FetchOptions.Builder.withChunkSize(MIGRATION_CHUNK_SIZE));
+    int legacyCount = 0;
+    int migratedCount = 0;
+    while (users.hasNext()) {
+      List<Entity> legacyUsers = new ArrayList<Entity>();
+      for (int i = 0; i < MIGRATION_CHUNK_SIZE && users.hasNext(); i++) {
+        Entity user = users.next();
+        if (user.getKey().getName() == null) {
+          legacyUsers.add(user);
+        }
+      }
+      legacyCount += legacyUsers.size();
+      migratedCount += AuthenticationServlet.migrateLegacyUsers(legacyUsers);
+    }
+
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    counts.put("legacyUsers", legacyCount);
+    counts.put("migratedUsers", migratedCount);
+    response.setContentType("application/json;");
+    response.getWriter().println(new Gson().toJson(counts));
+  }
+}
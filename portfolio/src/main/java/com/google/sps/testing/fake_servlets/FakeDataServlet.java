@@ -84,29 +84,28 @@ public class FakeDataServlet extends HttpServlet {
     }
 
     int numberToDisplay = getNumberToDisplay(request); 
-    String paginationInstruction = request.getParameter(RequestParameters.PAGE_ACTION);
     String searchQuery = request.getParameter(RequestParameters.SEARCH_QUERY);
     searchQuery = searchQuery.substring(1,searchQuery.length() - 1);
-    int pageToken = Integer.parseInt(request.getParameter(RequestParameters.PAGE_TOKEN));
+    String pageToken = Strings.nullToEmpty(
+      request.getParameter(RequestParameters.PAGE_TOKEN));
     String languageCodeWithQuotes = request.getParameter(RequestParameters.LANGUAGE);
     String languageCode = languageCodeWithQuotes.substring(1,languageCodeWithQuotes.length() - 1);
 
-    List<FakeComment> unfilteredComments = FakeCommentDatabase.getAllComments()
-      .stream()
-      .map(comment -> comment.translateComment(languageCode))
-      .collect(Collectors.toList());
-
-    List<FakeComment> comments = getFilteredComments(unfilteredComments, 
-      searchQuery);
+    List<FakeComment> comments = getFilteredComments(
+      FakeCommentDatabase.getAllComments(), searchQuery);
 
     Range<Integer> commentRange = getRangeOfCommentsToDisplay(
-      paginationInstruction, numberToDisplay, comments.size(), pageToken);
+      numberToDisplay, comments.size(), pageToken);
     List<FakeComment> commentsToDisplay = 
       comments.subList(commentRange.lowerEndpoint(), 
-      commentRange.upperEndpoint());
-    int newPageToken = commentRange.lowerEndpoint();
+      commentRange.upperEndpoint())
+      .stream()
+      .map(comment -> comment.translateComment(languageCode))
+      .collect(Collectors.toList());
+    String nextPageToken = commentRange.upperEndpoint() < comments.size() 
+      ? String.valueOf(commentRange.upperEndpoint()) : "";
 
-    String json = convertToJson(commentsToDisplay, newPageToken, 
+    String json = convertToJson(commentsToDisplay, pageToken, nextPageToken,
       currentUserId); 
     response.setCharacterEncoding("UTF-8");
     response.setContentType("application/json;");
@@ -114,42 +113,29 @@ public class FakeDataServlet extends HttpServlet {
   }
 
   /** Returns the range of comments that should be displayed on
-    * the site, given the user's instructions (reflecting
-    * whether to jump forward a page, jump backwards, or
-    * stay on the same page of comments).
-    * @param instruction Of the form ""next"", ""previous"", 
-        or ""none"".
+    * the site. The fake database uses the index of the first comment on 
+    * the page as its page token.
     * @param numberToDisplay Indicates the desired number of comments
         on the page.
     * @param totalNumberComments Indicates the number of comments currently
         in the database.
-    * @param pageToken The current index of the first comment being displayed 
-        on the page. 
+    * @param pageToken The index of the first comment to display, or the 
+        empty string for the first page. 
     * @return A range from `startIndex` to `stopIndex + 1`, where
         startIndex is the index of the first comment that should be displayed
         and stopIndex is the index of the last comment that should be
         displayed. */
-  private Range<Integer> getRangeOfCommentsToDisplay(String instruction, 
-    int numberToDisplay, int totalNumberComments, int pageToken) {
+  private Range<Integer> getRangeOfCommentsToDisplay(int numberToDisplay, 
+    int totalNumberComments, String pageToken) {
       int startIndex;
-      int stopIndex;
-
-      if (instruction.equals("\"previous\"")) {
-        startIndex = Math.max(0, pageToken - numberToDisplay);
-      } else if (instruction.equals("\"next\"")) {
-        if (pageToken + numberToDisplay >= totalNumberComments) {
-          startIndex = pageToken;
-        } else {
-          startIndex = pageToken + numberToDisplay;
-        }
-      } else {
-        startIndex = pageToken;
-      }
-      stopIndex = Math.min(totalNumberComments, startIndex + numberToDisplay);
-
-      if (stopIndex <= startIndex) {
-        startIndex = Math.max(0, stopIndex - numberToDisplay);
+      try {
+        startIndex = Strings.isNullOrEmpty(pageToken) 
+          ? 0 : Integer.parseInt(pageToken);
+      } catch (NumberFormatException e) {
+        startIndex = 0;
       }
+      startIndex = Math.max(0, Math.min(startIndex, totalNumberComments));
+      int stopIndex = Math.min(totalNumberComments, startIndex + numberToDisplay);
 
       return Range.closed(startIndex, stopIndex);
   }
@@ -203,12 +189,13 @@ public class FakeDataServlet extends HttpServlet {
 
   /** 
     * Returns JSON string representation of `data`, `pageToken`, 
-    * and `currentUserId`. 
+    * `nextPageToken`, and `currentUserId`. 
     */
-  private String convertToJson(List<FakeComment> data, int pageToken, 
-    String currentUserId) {
+  private String convertToJson(List<FakeComment> data, String pageToken, 
+    String nextPageToken, String currentUserId) {
     HashMap<String, Object> combineData = new HashMap<String, Object>();
     combineData.put("pageToken", pageToken);
+    combineData.put("nextPageToken", nextPageToken);
     combineData.put("commentData", data);
     combineData.put("currentUserId", currentUserId);
 
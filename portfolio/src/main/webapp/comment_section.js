@@ -16,15 +16,27 @@ const languageCodes = ["AF", "SQ", "AR", "HY", "EU", "BN", "BG", "CA", "KM",
   "LT", "MK", "MS", "ML", "MT", "MI", "MR", "MN", "NE", "NO", "FA", "PL", "PT", 
   "PA", "QU", "RO", "RU", "SM", "SR", "SK", "SL", "ES", "SW", "SV", "TA", "TT", 
   "TE", "TH", "BO", "TO", "TR", "UK", "UR", "UZ", "VI", "CY", "XH"];
-let pageToken = 0;
+let pageToken = "";
+let nextPageToken = "";
+let previousPageTokens = [];
+/** How often the progress of a bulk delete job is checked. */
+const deletePollIntervalMillis = 1000;
 
 /** 
   * Fetches comment data from the server and displays it on the page.
   * @param {String} pageAction Either "none", "next", or "previous", indicating
       whether the site should display the next page of comments, the previous, 
-      or stay on the same page.
+      or stay on the same page. Page tokens are opaque to the client, so the
+      tokens of earlier pages are kept to be able to flip back to them.
   */
 function displayCommentSection(pageAction) {
+  if (pageAction === 'next' && nextPageToken) {
+    previousPageTokens.push(pageToken);
+    pageToken = nextPageToken;
+  } else if (pageAction === 'previous' && previousPageTokens.length > 0) {
+    pageToken = previousPageTokens.pop();
+  }
+
   const selectNumberInput = document.getElementById('number-to-display');
   const numberToDisplay = selectNumberInput
     .options[selectNumberInput.selectedIndex].value;
@@ -37,8 +49,8 @@ function displayCommentSection(pageAction) {
   }
 
   fetch(`/data?numberToDisplay=${numberToDisplay}` + 
-    `&pageAction="${pageAction}"&search="${searchQuery}"` +
-    `&pageToken=${pageToken}&language="${language}"`)
+    `&search="${searchQuery}"` +
+    `&pageToken=${encodeURIComponent(pageToken)}&language="${language}"`)
     .then(response => response.json())
     .then(displayJSON);
 }
@@ -51,7 +63,13 @@ function displayCommentSection(pageAction) {
   * @param {JSON} json The JSON representing the list of comment objects. 
   */
 function displayJSON(json) {
+  if (json.commentData.length === 0 && previousPageTokens.length > 0) {
+    // Every comment on this page was deleted, so flip back a page.
+    displayCommentSection('previous');
+    return;
+  }
   pageToken = json.pageToken;
+  nextPageToken = json.nextPageToken;
   const currentUserId = json.currentUserId;
   json = json.commentData;
 
@@ -169,12 +187,45 @@ function prettyPrintTime(timeInMilliseconds) {
   return time.toLocaleDateString(undefined, options);
 }
 
-/** Deletes all comments from the datastore. */
+/** 
+  * Deletes all comments from the datastore, in a background job whose
+  * progress is shown on the clear-all button until it is done.
+  */
 function deleteAllComments() {
+  const button = document.getElementById('clear-all-button-actual');
+  button.disabled = true;
   fetch(new Request('/delete-data?whichData="all"', {method: 'POST'}))
-    .then(response => {
-      displayCommentSection('none');
-    });
+    .then(response => response.json())
+    .then(job => pollDeleteJob(job.statusUrl))
+    .catch(() => finishDeleteJob());
+}
+
+/** 
+  * Checks the bulk delete job at `statusUrl` until its status is "DONE",
+  * showing the number of comments it has deleted so far, and then 
+  * refreshes the comment section.
+  */
+function pollDeleteJob(statusUrl) {
+  fetch(statusUrl)
+    .then(response => response.json())
+    .then(job => {
+      if (job.status === 'DONE') {
+        finishDeleteJob();
+        return;
+      }
+      document.getElementById('clear-all-button-actual').innerText = 
+        `Deleted ${job.deletedCount}...`;
+      setTimeout(() => pollDeleteJob(statusUrl), deletePollIntervalMillis);
+    })
+    .catch(() => finishDeleteJob());
+}
+
+/** Restores the clear-all button and refreshes the comment section. */
+function finishDeleteJob() {
+  const button = document.getElementById('clear-all-button-actual');
+  button.innerText = 'Clear All';
+  button.disabled = false;
+  displayCommentSection('none');
 }
 
 /** Deletes the comment with id `commentId` from the datastore. */
@@ -190,10 +241,17 @@ function deleteThisComment(commentId) {
 function onClearSearch() {
   let searchBar = document.getElementById("search");
   searchBar.value = "";
-  pageToken = 0;
+  resetPageTokens();
   displayCommentSection('none');
 }
 
+/** Returns the comment section to its first page. */
+function resetPageTokens() {
+  pageToken = "";
+  nextPageToken = "";
+  previousPageTokens = [];
+}
+
 /** 
   * Displays the dropdown menu that decides the language to display the comment 
   * section in.  
@@ -260,7 +318,7 @@ function initializeSearchBar() {
   let searchBar = document.getElementById("search");
   searchBar.addEventListener("keydown", function (e) {
     if(e.keyCode == 13) {
-      pageToken = 0;
+      resetPageTokens();
       displayCommentSection('none');
     }
   });
@@ -0,0 +1,54 @@
+package com.google.sps;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.sps.functionality.CircuitBreaker;
+
+@RunWith(JUnit4.class)
+public final class CircuitBreakerTest {
+
+  private static final int FAILURE_THRESHOLD = 3;
+  private static final long LONG_COOL_DOWN_MILLIS = 60 * 1000;
+
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    CircuitBreaker breaker =
+      new CircuitBreaker(FAILURE_THRESHOLD, LONG_COOL_DOWN_MILLIS);
+
+    breaker.recordFailure();
+    breaker.recordFailure();
+    Assert.assertTrue(breaker.allowRequest());
+
+    breaker.recordFailure();
+    Assert.assertFalse(breaker.allowRequest());
+    Assert.assertEquals(1, breaker.getRejectedCount());
+  }
+
+  @Test
+  public void successResetsFailureCount() {
+    CircuitBreaker breaker =
+      new CircuitBreaker(FAILURE_THRESHOLD, LONG_COOL_DOWN_MILLIS);
+
+    breaker.recordFailure();
+    breaker.recordFailure();
+    breaker.recordSuccess();
+    breaker.recordFailure();
+
+    Assert.assertFalse(breaker.isOpen());
+  }
+
+  @Test
+  public void allowsOneTrialAfterCoolDown() {
+    CircuitBreaker breaker = new CircuitBreaker(1, 0);
+
+    breaker.recordFailure();
+
+    Assert.assertTrue(breaker.isOpen());
+    Assert.assertTrue(breaker.allowRequest());
+    breaker.recordSuccess();
+    Assert.assertFalse(breaker.isOpen());
+  }
+}
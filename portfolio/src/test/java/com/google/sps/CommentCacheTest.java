@@ -0,0 +1,109 @@
+package com.google.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentPosition;
+import com.google.sps.functionality.CommentCache;
+
+@RunWith(JUnit4.class)
+public final class CommentCacheTest {
+
+  private static final int CAPACITY = 3;
+  private static final long MAX_AGE_MILLIS = 60 * 1000;
+
+  private static final Comment OLDEST = comment(1, 100, "1", "Sally");
+  private static final Comment OLDER = comment(2, 200, "1", "Sally");
+  private static final Comment NEWER = comment(3, 300, "2", "Bob");
+  private static final Comment NEWEST = comment(4, 400, "2", "Bob");
+
+  private CommentCache cache;
+
+  private static Comment comment(long id, long time, String userId,
+    String username) {
+    return new Comment("text", username, time, id, userId, "", "NEUTRAL", "");
+  }
+
+  private static List<Long> ids(Iterator<Comment> comments) {
+    List<Long> ids = new ArrayList<Long>();
+    comments.forEachRemaining(comment -> ids.add(comment.id));
+    return ids;
+  }
+
+  @Before
+  public void setUp() {
+    cache = new CommentCache(CAPACITY, MAX_AGE_MILLIS);
+  }
+
+  @Test
+  public void unloadedCacheNeedsReload() {
+    Assert.assertTrue(cache.needsReload());
+
+    cache.reload(Arrays.asList(OLDER, OLDEST), true);
+
+    Assert.assertFalse(cache.needsReload());
+  }
+
+  @Test
+  public void commentsAreOrderedNewestFirst() {
+    cache.reload(Arrays.asList(OLDEST, NEWER, OLDER), true);
+
+    Assert.assertEquals(Arrays.asList(3L, 2L, 1L),
+      ids(cache.getCommentsAfter(null)));
+  }
+
+  @Test
+  public void commentsAfterPositionExcludeThatPosition() {
+    cache.reload(Arrays.asList(NEWER, OLDER, OLDEST), true);
+
+    Assert.assertEquals(Arrays.asList(1L),
+      ids(cache.getCommentsAfter(CommentPosition.of(OLDER))));
+  }
+
+  @Test
+  public void addingPastCapacityEvictsOldest() {
+    cache.reload(Arrays.asList(NEWER, OLDER, OLDEST), true);
+
+    cache.add(NEWEST);
+
+    Assert.assertEquals(Arrays.asList(4L, 3L, 2L),
+      ids(cache.getCommentsAfter(null)));
+    Assert.assertEquals(1, cache.getEvictionCount());
+    Assert.assertFalse(cache.isComplete());
+  }
+
+  @Test
+  public void addingToUnloadedCacheIsIgnored() {
+    cache.add(NEWEST);
+
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void updateUserNameRelabelsThatUsersComments() {
+    cache.reload(Arrays.asList(NEWER, OLDER, OLDEST), true);
+
+    cache.updateUserName("1", "Caroline");
+
+    Iterator<Comment> comments = cache.getCommentsAfter(null);
+    Assert.assertEquals("Bob", comments.next().username);
+    Assert.assertEquals("Caroline", comments.next().username);
+    Assert.assertEquals("Caroline", comments.next().username);
+  }
+
+  @Test
+  public void positionSurvivesEncoding() {
+    CommentPosition position = CommentPosition.of(NEWER);
+
+    Assert.assertEquals(position, CommentPosition.decode(position.encode()));
+    Assert.assertNull(CommentPosition.decode("notAPosition"));
+  }
+}
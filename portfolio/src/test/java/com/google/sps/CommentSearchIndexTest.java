@@ -0,0 +1,94 @@
+package com.google.sps;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentPosition;
+import com.google.sps.functionality.CommentSearchIndex;
+
+@RunWith(JUnit4.class)
+public final class CommentSearchIndexTest {
+
+  private static final long MAX_AGE_MILLIS = 60 * 1000;
+
+  private static final Comment OLDEST =
+    comment(1, 100, "1", "Sally", "I love dogs");
+  private static final Comment OLDER =
+    comment(2, 200, "1", "Sally", "Cats eat banana bread");
+  private static final Comment NEWER =
+    comment(3, 300, "2", "Bob", "Hotdogs for lunch");
+  private static final Comment NEWEST =
+    comment(4, 400, "2", "Bob", "More dogs please");
+
+  private CommentSearchIndex index;
+
+  private static Comment comment(long id, long time, String userId,
+    String username, String text) {
+    return new Comment(text, username, time, id, userId, "", "NEUTRAL", "");
+  }
+
+  private static List<Long> ids(List<Comment> comments) {
+    return comments.stream()
+      .map(comment -> comment.id)
+      .collect(Collectors.toList());
+  }
+
+  @Before
+  public void setUp() {
+    index = new CommentSearchIndex(MAX_AGE_MILLIS);
+    index.rebuild(Arrays.asList(OLDEST, NEWER, OLDER));
+  }
+
+  @Test
+  public void substringMatchesAreNewestFirst() {
+    Assert.assertEquals(Arrays.asList(3L, 1L),
+      ids(index.search("dogs", null, 10)));
+  }
+
+  @Test
+  public void shortQueriesMatchWithinTokens() {
+    Assert.assertEquals(Arrays.asList(3L, 1L),
+      ids(index.search("og", null, 10)));
+  }
+
+  @Test
+  public void trigramsAloneDoNotMatch() {
+    // Every trigram of "bananana" appears in "banana", but not the query.
+    Assert.assertTrue(index.search("bananana", null, 10).isEmpty());
+    Assert.assertEquals(Arrays.asList(1L),
+      ids(index.search("e dogs", null, 10)));
+  }
+
+  @Test
+  public void searchResumesAfterPosition() {
+    Assert.assertEquals(Arrays.asList(1L),
+      ids(index.search("dogs", CommentPosition.of(NEWER), 10)));
+    Assert.assertEquals(Arrays.asList(3L),
+      ids(index.search("dogs", null, 1)));
+  }
+
+  @Test
+  public void addedAndRemovedCommentsAreReflected() {
+    index.add(NEWEST);
+    index.remove(OLDEST.id);
+
+    Assert.assertEquals(Arrays.asList(4L, 3L),
+      ids(index.search("dogs", null, 10)));
+  }
+
+  @Test
+  public void updateUserNameReindexesThatUsersComments() {
+    index.updateUserName("1", "Caroline");
+
+    Assert.assertEquals(Arrays.asList(2L, 1L),
+      ids(index.search("Caroline", null, 10)));
+    Assert.assertTrue(index.search("Sally", null, 10).isEmpty());
+  }
+}
@@ -0,0 +1,42 @@
+package com.google.sps;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.sps.data.Comment;
+import com.google.sps.data.CommentTypeAdapter;
+
+@RunWith(JUnit4.class)
+public final class CommentTypeAdapterTest {
+
+  private static final Comment COMMENT = new Comment(
+    "<a target=\"_blank\" href=\"https://en.wikipedia.org/wiki/Dog\">Dog</a>",
+    "Sally", 100, 1, "1", "sally@example.com", "POSITIVE", "/Pets");
+
+  private final Gson gson = new GsonBuilder()
+    .registerTypeAdapter(Comment.class, new CommentTypeAdapter())
+    .create();
+
+  @Test
+  public void writesSameJsonAsReflection() {
+    Assert.assertEquals(new Gson().toJson(COMMENT), gson.toJson(COMMENT));
+  }
+
+  @Test
+  public void readsWhatItWrites() {
+    Comment comment = gson.fromJson(gson.toJson(COMMENT), Comment.class);
+
+    Assert.assertEquals(COMMENT.text, comment.text);
+    Assert.assertEquals(COMMENT.username, comment.username);
+    Assert.assertEquals(COMMENT.time, comment.time);
+    Assert.assertEquals(COMMENT.id, comment.id);
+    Assert.assertEquals(COMMENT.userId, comment.userId);
+    Assert.assertEquals(COMMENT.email, comment.email);
+    Assert.assertEquals(COMMENT.sentiment, comment.sentiment);
+    Assert.assertEquals(COMMENT.topic, comment.topic);
+  }
+}
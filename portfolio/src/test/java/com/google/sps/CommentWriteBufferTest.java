@@ -0,0 +1,112 @@
+package com.google.sps;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.apphosting.api.ApiProxy;
+import com.google.sps.functionality.CommentWriteBuffer;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public final class CommentWriteBufferTest {
+
+  private static final int CAPACITY = 100;
+  private static final int BATCH_SIZE = 10;
+  private static final long LINGER_MILLIS = 50;
+
+  /**
+    * Entities need an App Engine environment to be created, so the test
+    * thread is given a minimal one, and writer threads are handed entities
+    * created on it.
+    */
+  @Before
+  public void setUpEnvironment() {
+    Map<String, Object> attributes = new HashMap<String, Object>();
+    ApiProxy.setEnvironmentForCurrentThread((ApiProxy.Environment)
+      Proxy.newProxyInstance(ApiProxy.Environment.class.getClassLoader(),
+        new Class<?>[] {ApiProxy.Environment.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getAppId":
+              return "test";
+            case "getAttributes":
+              return attributes;
+            default:
+              Class<?> type = method.getReturnType();
+              return type == boolean.class ? false
+                : type == long.class ? 0L : null;
+          }
+        }));
+  }
+
+  @After
+  public void tearDownEnvironment() {
+    ApiProxy.clearEnvironmentForCurrentThread();
+  }
+
+  @Test
+  public void coalescesConcurrentWritesIntoBatches() throws Exception {
+    List<Integer> batchSizes = new ArrayList<Integer>();
+    CommentWriteBuffer buffer = new CommentWriteBuffer(CAPACITY, BATCH_SIZE,
+      LINGER_MILLIS, batch -> {
+        synchronized (batchSizes) {
+          batchSizes.add(batch.size());
+        }
+      });
+
+    int writerCount = 40;
+    ExecutorService writers = Executors.newFixedThreadPool(writerCount);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<Future<Void>>> writes = new ArrayList<Future<Future<Void>>>();
+    for (int i = 0; i < writerCount; i++) {
+      Entity comment = new Entity("Comment");
+      writes.add(writers.submit(() -> {
+        start.await();
+        return buffer.write(comment, "Writer");
+      }));
+    }
+    start.countDown();
+    for (Future<Future<Void>> write : writes) {
+      write.get(10, TimeUnit.SECONDS).get(10, TimeUnit.SECONDS);
+    }
+    writers.shutdown();
+
+    Assert.assertEquals(writerCount, buffer.getStoredCount());
+    Assert.assertEquals(0, buffer.getQueuedCount());
+    Assert.assertTrue(buffer.getBatchCount() < writerCount);
+    Assert.assertTrue(batchSizes.stream().allMatch(size -> size <= BATCH_SIZE));
+  }
+
+  @Test
+  public void failedBatchFailsItsWrites() throws InterruptedException {
+    CommentWriteBuffer buffer = new CommentWriteBuffer(CAPACITY, BATCH_SIZE,
+      0, batch -> {
+        throw new IllegalStateException("Datastore unavailable");
+      });
+
+    Future<Void> stored = buffer.write(new Entity("Comment"), "Writer");
+
+    try {
+      stored.get();
+      Assert.fail("Expected the write to fail");
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+    }
+    Assert.assertEquals(0, buffer.getStoredCount());
+  }
+}
@@ -0,0 +1,55 @@
+package com.google.sps;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.sps.functionality.LexiconSentimentAnalyzer;
+import com.google.sps.functionality.SentimentAnalyzer.SentimentType;
+
+@RunWith(JUnit4.class)
+public final class LexiconSentimentAnalyzerTest {
+
+  @Test
+  public void positiveText() {
+    Assert.assertEquals(SentimentType.POSITIVE,
+      LexiconSentimentAnalyzer.getSentiment("What a great and lovely site!"));
+  }
+
+  @Test
+  public void negativeText() {
+    Assert.assertEquals(SentimentType.NEGATIVE,
+      LexiconSentimentAnalyzer.getSentiment("This is terrible and awful."));
+  }
+
+  @Test
+  public void negationReversesSentiment() {
+    Assert.assertTrue(
+      LexiconSentimentAnalyzer.getScore("The food wasn't very great.") < 0);
+  }
+
+  @Test
+  public void negationEndsWithClause() {
+    Assert.assertTrue(
+      LexiconSentimentAnalyzer.getScore("Not bad, and great!")
+        > LexiconSentimentAnalyzer.getScore("Not bad and great!"));
+  }
+
+  @Test
+  public void intensifierStrengthensSentiment() {
+    Assert.assertTrue(LexiconSentimentAnalyzer.getScore("very good")
+      > LexiconSentimentAnalyzer.getScore("good"));
+  }
+
+  @Test
+  public void unknownWordsAreNeutral() {
+    Assert.assertEquals(0,
+      LexiconSentimentAnalyzer.getScore("The table has four legs"), 0);
+  }
+
+  @Test
+  public void analysisIsMarkedLocal() {
+    Assert.assertTrue(LexiconSentimentAnalyzer.analyze("good").isLocal);
+  }
+}
@@ -19,12 +19,12 @@ import com.google.cloud.language.v1.LanguageServiceClient;
 import com.google.cloud.language.v1.AnalyzeSentimentResponse;
 import com.google.cloud.language.v1.Sentiment;
 import com.google.cloud.language.v1.Document;
-import com.google.cloud.language.v1.AnalyzeEntitiesRequest;
-import com.google.cloud.language.v1.AnalyzeEntitiesResponse;
 import com.google.cloud.language.v1.Entity;
-import com.google.cloud.language.v1.ClassifyTextRequest;
-import com.google.cloud.language.v1.ClassifyTextResponse;
 import com.google.cloud.language.v1.ClassificationCategory;
+import com.google.cloud.language.v1.AnnotateTextRequest;
+import com.google.cloud.language.v1.AnnotateTextResponse;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.TextSpan;
 import com.google.api.gax.rpc.InvalidArgumentException;
 import java.lang.Throwable;
 import com.google.api.gax.grpc.GrpcStatusCode;
@@ -36,10 +36,9 @@ public final class SentimentTest {
   private static LanguageServiceClient mockLanguageServiceClient;
   private static AnalyzeSentimentResponse mockSentimentResponse;
   private static Sentiment mockSentiment;
-  private static AnalyzeEntitiesResponse mockAnalyzeEntitiesResponse;
+  private static AnnotateTextResponse mockAnnotateTextResponse;
   private static Entity mockEntityOne;
   private static Entity mockEntityTwo;
-  private static ClassifyTextResponse mockClassifyTextResponse;
   private static ClassificationCategory mockClassificationCategoryOne;
   private static ClassificationCategory mockClassificationCategoryTwo;
 
@@ -62,20 +61,16 @@ public final class SentimentTest {
   private static Map<String, String> ENTITY_ONE_METADATA_MAP = new HashMap<String, String>();
   private static Map<String, String> ENTITY_TWO_METADATA_MAP = new HashMap<String, String>();
 
+  private static final String LONG_STRING = 
+    "one two three four five six seven eight nine ten eleven twelve " +
+    "thirteen fourteen fifteen sixteen seventeen eighteen nineteen twenty";
+
   private static final String CATEGORY_NAME_ONE = "Category One";
   private static final String CATEGORY_NAME_TWO = "Category Two";
 
   private static boolean isDocument(Document document) {
     return true;
   }
-  private static boolean isAnalyzeEntitiesRequest(
-    AnalyzeEntitiesRequest analyzeEntitiesRequest) {
-    return true;
-  }
-  private static boolean isClassifyTextRequest(
-    ClassifyTextRequest classifyTextRequest) {
-    return true;
-  }
 
   @Before
   public void setUp() {
@@ -83,11 +78,10 @@ public final class SentimentTest {
     mockSentimentResponse = mock(AnalyzeSentimentResponse.class);
     mockSentiment = mock(Sentiment.class);
 
-    mockAnalyzeEntitiesResponse = mock(AnalyzeEntitiesResponse.class);
+    mockAnnotateTextResponse = mock(AnnotateTextResponse.class);
     mockEntityOne = mock(Entity.class);
     mockEntityTwo = mock(Entity.class);
 
-    mockClassifyTextResponse = mock(ClassifyTextResponse.class);
     mockClassificationCategoryOne = mock(ClassificationCategory.class);
     mockClassificationCategoryTwo = mock(ClassificationCategory.class);
 
@@ -96,9 +90,10 @@ public final class SentimentTest {
     when(mockSentimentResponse.getDocumentSentiment())
       .thenReturn(mockSentiment);
 
-    when(mockLanguageServiceClient
-      .analyzeEntities(argThat(SentimentTest::isAnalyzeEntitiesRequest)))
-      .thenReturn(mockAnalyzeEntitiesResponse);
+    when(mockLanguageServiceClient.annotateText(any(AnnotateTextRequest.class)))
+      .thenReturn(mockAnnotateTextResponse);
+    when(mockAnnotateTextResponse.getDocumentSentiment())
+      .thenReturn(mockSentiment);
     when(mockEntityOne.getName()).thenReturn(ENTITY_ONE_NAME);
     when(mockEntityTwo.getName()).thenReturn(ENTITY_TWO_NAME);
 
@@ -147,14 +142,15 @@ public final class SentimentTest {
 
   @Test
   public void noAvailableEntityLinksLeavesStringUnchanged() {
-    when(mockAnalyzeEntitiesResponse.getEntitiesList())
+    when(mockAnnotateTextResponse.getEntitiesList())
       .thenReturn(Arrays.asList(mockEntityOne, mockEntityTwo));
     when(mockEntityOne.containsMetadata("wikipedia_url"))
       .thenReturn(false);
     when(mockEntityTwo.containsMetadata("wikipedia_url"))
       .thenReturn(false);
     
-    String actual = SentimentAnalyzer.getHTMLWithNamedEntityLinks(STRING_WITH_ENTITIES, mockLanguageServiceClient);
+    String actual = SentimentAnalyzer.analyze(
+      STRING_WITH_ENTITIES, mockLanguageServiceClient).htmlWithEntityLinks;
     String expected = STRING_WITH_ENTITIES;
 
     Assert.assertEquals(expected, actual);
@@ -162,10 +158,11 @@ public final class SentimentTest {
 
   @Test
   public void noEntitiesFoundLeavesStringUnchanged() {
-    when(mockAnalyzeEntitiesResponse.getEntitiesList())
+    when(mockAnnotateTextResponse.getEntitiesList())
       .thenReturn(Arrays.asList());
 
-    String actual = SentimentAnalyzer.getHTMLWithNamedEntityLinks(STRING_WITH_ENTITIES, mockLanguageServiceClient);
+    String actual = SentimentAnalyzer.analyze(
+      STRING_WITH_ENTITIES, mockLanguageServiceClient).htmlWithEntityLinks;
     String expected = STRING_WITH_ENTITIES;
 
     Assert.assertEquals(expected, actual);
@@ -176,7 +173,7 @@ public final class SentimentTest {
     // When only the first entity has a link, only that link is added
     // to the string.
 
-    when(mockAnalyzeEntitiesResponse.getEntitiesList())
+    when(mockAnnotateTextResponse.getEntitiesList())
       .thenReturn(Arrays.asList(mockEntityOne, mockEntityTwo));
     when(mockEntityOne.containsMetadata("wikipedia_url"))
       .thenReturn(true);
@@ -184,7 +181,8 @@ public final class SentimentTest {
     when(mockEntityTwo.containsMetadata("wikipedia_url"))
       .thenReturn(false);
     
-    String actual = SentimentAnalyzer.getHTMLWithNamedEntityLinks(STRING_WITH_ENTITIES, mockLanguageServiceClient);
+    String actual = SentimentAnalyzer.analyze(
+      STRING_WITH_ENTITIES, mockLanguageServiceClient).htmlWithEntityLinks;
     String expected = HAS_LINK_FOR_ENTITY_ONE;
 
     Assert.assertEquals(expected, actual);
@@ -195,7 +193,7 @@ public final class SentimentTest {
     // When only the second entity has a link, only that link is added
     // to the string.
 
-    when(mockAnalyzeEntitiesResponse.getEntitiesList())
+    when(mockAnnotateTextResponse.getEntitiesList())
       .thenReturn(Arrays.asList(mockEntityOne, mockEntityTwo));
     when(mockEntityOne.containsMetadata("wikipedia_url"))
       .thenReturn(false);
@@ -203,7 +201,8 @@ public final class SentimentTest {
       .thenReturn(true);
     when(mockEntityTwo.getMetadataMap()).thenReturn(ENTITY_TWO_METADATA_MAP);
     
-    String actual = SentimentAnalyzer.getHTMLWithNamedEntityLinks(STRING_WITH_ENTITIES, mockLanguageServiceClient);
+    String actual = SentimentAnalyzer.analyze(
+      STRING_WITH_ENTITIES, mockLanguageServiceClient).htmlWithEntityLinks;
     String expected = HAS_LINK_FOR_ENTITY_TWO;
 
     Assert.assertEquals(expected, actual);
@@ -214,7 +213,7 @@ public final class SentimentTest {
     // When both entities have links, both links are inserted
     // into the string.
 
-    when(mockAnalyzeEntitiesResponse.getEntitiesList())
+    when(mockAnnotateTextResponse.getEntitiesList())
       .thenReturn(Arrays.asList(mockEntityOne, mockEntityTwo));
     when(mockEntityOne.containsMetadata("wikipedia_url"))
       .thenReturn(true);
@@ -223,7 +222,8 @@ public final class SentimentTest {
       .thenReturn(true);
     when(mockEntityTwo.getMetadataMap()).thenReturn(ENTITY_TWO_METADATA_MAP);
     
-    String actual = SentimentAnalyzer.getHTMLWithNamedEntityLinks(STRING_WITH_ENTITIES, mockLanguageServiceClient);
+    String actual = SentimentAnalyzer.analyze(
+      STRING_WITH_ENTITIES, mockLanguageServiceClient).htmlWithEntityLinks;
     String expected = HAS_LINKS_FOR_BOTH_ENTITIES;
 
     Assert.assertEquals(expected, actual);
@@ -231,11 +231,16 @@ public final class SentimentTest {
 
   @Test
   public void noTopicFoundYieldsEmptyString() {
-    when(mockLanguageServiceClient.classifyText(argThat(SentimentTest::isClassifyTextRequest)))
+    // The request that asks for a topic is rejected, and the text is 
+    // analyzed again without one.
+    when(mockLanguageServiceClient.annotateText(
+      argThat((AnnotateTextRequest request) -> 
+        request.getFeatures().getClassifyText())))
       .thenThrow(new com.google.api.gax.rpc.InvalidArgumentException(
         new Throwable(), GrpcStatusCode.of(Status.INVALID_ARGUMENT.getCode()), false));
     
-    String actual = SentimentAnalyzer.getTopic(TEST_STRING, mockLanguageServiceClient);
+    String actual = SentimentAnalyzer.analyze(
+      LONG_STRING, mockLanguageServiceClient).topic;
     String expected = "";
 
     Assert.assertEquals(expected, actual);
@@ -243,13 +248,12 @@ public final class SentimentTest {
 
   @Test
   public void returnTopicIfFound() {
-    when(mockLanguageServiceClient.classifyText(argThat(SentimentTest::isClassifyTextRequest)))
-      .thenReturn(mockClassifyTextResponse);
-    when(mockClassifyTextResponse.getCategoriesList())
+    when(mockAnnotateTextResponse.getCategoriesList())
       .thenReturn(Arrays.asList(mockClassificationCategoryOne));
     when(mockClassificationCategoryOne.getConfidence()).thenReturn(1f);
     
-    String actual = SentimentAnalyzer.getTopic(TEST_STRING, mockLanguageServiceClient);
+    String actual = SentimentAnalyzer.analyze(
+      LONG_STRING, mockLanguageServiceClient).topic;
     String expected = CATEGORY_NAME_ONE;
 
     Assert.assertEquals(expected, actual);
@@ -257,16 +261,96 @@ public final class SentimentTest {
 
   @Test
   public void returnHigherConfidenceTopic() {
-    when(mockLanguageServiceClient.classifyText(argThat(SentimentTest::isClassifyTextRequest)))
-      .thenReturn(mockClassifyTextResponse);
-    when(mockClassifyTextResponse.getCategoriesList())
+    when(mockAnnotateTextResponse.getCategoriesList())
       .thenReturn(Arrays.asList(mockClassificationCategoryOne, mockClassificationCategoryTwo));
     when(mockClassificationCategoryOne.getConfidence()).thenReturn(1f);
     when(mockClassificationCategoryTwo.getConfidence()).thenReturn(2f);
     
-    String actual = SentimentAnalyzer.getTopic(TEST_STRING, mockLanguageServiceClient);
+    String actual = SentimentAnalyzer.analyze(
+      LONG_STRING, mockLanguageServiceClient).topic;
     String expected = CATEGORY_NAME_TWO;
 
     Assert.assertEquals(expected, actual);
   }
+
+  @Test
+  public void analyzeCombinesAllResultsInOneRequest() {
+    when(mockSentiment.getScore()).thenReturn(1f);
+    when(mockAnnotateTextResponse.getCategoriesList())
+      .thenReturn(Arrays.asList(mockClassificationCategoryOne, 
+        mockClassificationCategoryTwo));
+    when(mockClassificationCategoryOne.getConfidence()).thenReturn(2f);
+    when(mockClassificationCategoryTwo.getConfidence()).thenReturn(1f);
+    when(mockAnnotateTextResponse.getEntitiesList())
+      .thenReturn(Arrays.asList(mockEntityOne));
+    when(mockEntityOne.containsMetadata("wikipedia_url")).thenReturn(true);
+    when(mockEntityOne.getMetadataMap()).thenReturn(ENTITY_ONE_METADATA_MAP);
+
+    SentimentAnalyzer.TextAnalysis analysis = SentimentAnalyzer.analyze(
+      STRING_WITH_ENTITIES + " " + LONG_STRING, mockLanguageServiceClient);
+
+    Assert.assertEquals(SentimentAnalyzer.SentimentType.POSITIVE, 
+      analysis.sentiment);
+    Assert.assertEquals(CATEGORY_NAME_ONE, analysis.topic);
+    Assert.assertEquals(HAS_LINK_FOR_ENTITY_ONE + " " + LONG_STRING, 
+      analysis.htmlWithEntityLinks);
+    verify(mockLanguageServiceClient, times(1))
+      .annotateText(any(AnnotateTextRequest.class));
+    verifyNoMoreInteractions(mockLanguageServiceClient);
+  }
+
+  @Test
+  public void analyzeDoesNotClassifyShortText() {
+    when(mockSentiment.getScore()).thenReturn(0f);
+    when(mockAnnotateTextResponse.getCategoriesList())
+      .thenReturn(Arrays.asList(mockClassificationCategoryOne));
+
+    SentimentAnalyzer.TextAnalysis analysis = SentimentAnalyzer.analyze(
+      TEST_STRING, mockLanguageServiceClient);
+
+    Assert.assertEquals(SentimentAnalyzer.SentimentType.NEUTRAL, 
+      analysis.sentiment);
+    Assert.assertEquals("", analysis.topic);
+    Assert.assertEquals(TEST_STRING, analysis.htmlWithEntityLinks);
+    verify(mockLanguageServiceClient).annotateText(
+      argThat((AnnotateTextRequest request) ->
+        !request.getFeatures().getClassifyText()));
+  }
+
+  @Test
+  public void linksEntityAtMentionOffset() {
+    // The entity is linked where it was mentioned, not where its name
+    // first appears.
+    String text = "Entity Two, not Entity One, then Entity One";
+    Entity entity = Entity.newBuilder()
+      .setName(ENTITY_ONE_NAME)
+      .putMetadata("wikipedia_url", ENTITY_ONE_LINK)
+      .addMentions(EntityMention.newBuilder().setText(TextSpan.newBuilder()
+        .setContent(ENTITY_ONE_NAME)
+        .setBeginOffset(text.lastIndexOf(ENTITY_ONE_NAME))))
+      .build();
+
+    String actual = SentimentAnalyzer.getHTMLWithNamedEntityLinks(text, 
+      Arrays.asList(entity));
+    String expected = "Entity Two, not Entity One, then " + 
+      "<a target=\"_blank\" href=\"entity_one.com\">Entity One</a>";
+
+    Assert.assertEquals(expected, actual);
+  }
+
+  @Test
+  public void mismatchedMentionOffsetFallsBackToName() {
+    Entity entity = Entity.newBuilder()
+      .setName(ENTITY_ONE_NAME)
+      .putMetadata("wikipedia_url", ENTITY_ONE_LINK)
+      .addMentions(EntityMention.newBuilder().setText(TextSpan.newBuilder()
+        .setContent(ENTITY_ONE_NAME)
+        .setBeginOffset(5)))
+      .build();
+
+    String actual = SentimentAnalyzer.getHTMLWithNamedEntityLinks(
+      STRING_WITH_ENTITIES, Arrays.asList(entity));
+
+    Assert.assertEquals(HAS_LINK_FOR_ENTITY_ONE, actual);
+  }
 }
@@ -0,0 +1,31 @@
+package com.google.sps;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.sps.functionality.TextAnalysisCache;
+
+@RunWith(JUnit4.class)
+public final class TextAnalysisCacheTest {
+
+  @Test
+  public void textsDifferingOnlyInWhitespaceShareKey() {
+    Assert.assertEquals(TextAnalysisCache.getCacheKey("Great work!"),
+      TextAnalysisCache.getCacheKey("  Great \n work!\t"));
+  }
+
+  @Test
+  public void textsDifferingInUnicodeFormShareKey() {
+    // "ﬁ" is the "fi" ligature, which NFKC normalizes to "fi".
+    Assert.assertEquals(TextAnalysisCache.getCacheKey("fine"),
+      TextAnalysisCache.getCacheKey("ﬁne"));
+  }
+
+  @Test
+  public void differentTextsHaveDifferentKeys() {
+    Assert.assertNotEquals(TextAnalysisCache.getCacheKey("Great work!"),
+      TextAnalysisCache.getCacheKey("great work!"));
+  }
+}
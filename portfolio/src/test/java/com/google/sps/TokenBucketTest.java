@@ -0,0 +1,53 @@
+package com.google.sps;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.sps.functionality.TokenBucket;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public final class TokenBucketTest {
+
+  private static final int TOKENS_PER_MINUTE = 60;
+  private static final int CAPACITY = 3;
+  private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void admitsBurstUpToCapacity() {
+    TokenBucket bucket = new TokenBucket(TOKENS_PER_MINUTE, CAPACITY);
+    long now = System.nanoTime();
+
+    for (int i = 0; i < CAPACITY; i++) {
+      Assert.assertEquals(0, bucket.tryAcquire(now));
+    }
+    long waitNanos = bucket.tryAcquire(now);
+    Assert.assertTrue(waitNanos > 0 && waitNanos <= ONE_SECOND);
+  }
+
+  @Test
+  public void refillsAtSteadyRate() {
+    TokenBucket bucket = new TokenBucket(TOKENS_PER_MINUTE, CAPACITY);
+    long now = System.nanoTime();
+    for (int i = 0; i < CAPACITY; i++) {
+      bucket.tryAcquire(now);
+    }
+
+    Assert.assertEquals(0, bucket.tryAcquire(now + ONE_SECOND));
+    Assert.assertTrue(bucket.tryAcquire(now + ONE_SECOND) > 0);
+  }
+
+  @Test
+  public void rejectedRequestsDoNotTakeTokens() {
+    TokenBucket bucket = new TokenBucket(TOKENS_PER_MINUTE, 1);
+    long now = System.nanoTime();
+    bucket.tryAcquire(now);
+    for (int i = 0; i < 10; i++) {
+      bucket.tryAcquire(now);
+    }
+
+    Assert.assertEquals(0, bucket.tryAcquire(now + ONE_SECOND));
+  }
+}
@@ -0,0 +1,67 @@
+package com.google.sps;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.sps.functionality.UserNameCache;
+import java.util.Arrays;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public final class UserNameCacheTest {
+
+  private static final long LONG_TTL_MILLIS = 60 * 1000;
+
+  @Test
+  public void cachesUsernamesAndUnknownUsers() {
+    UserNameCache cache =
+      new UserNameCache(100, LONG_TTL_MILLIS, LONG_TTL_MILLIS);
+    cache.put("1", "Alice");
+    cache.put("2", "");
+
+    Assert.assertEquals("Alice", cache.get("1"));
+    Assert.assertEquals("", cache.get("2"));
+    Assert.assertNull(cache.get("3"));
+    Assert.assertEquals(1, cache.getHitCount());
+    Assert.assertEquals(1, cache.getNegativeHitCount());
+    Assert.assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void getAllReturnsOnlyCachedUsers() {
+    UserNameCache cache =
+      new UserNameCache(100, LONG_TTL_MILLIS, LONG_TTL_MILLIS);
+    cache.put("1", "Alice");
+    cache.put("2", "");
+
+    Map<String, String> usernames = cache.getAll(Arrays.asList("1", "2", "3"));
+
+    Assert.assertEquals(2, usernames.size());
+    Assert.assertEquals("Alice", usernames.get("1"));
+    Assert.assertEquals("", usernames.get("2"));
+  }
+
+  @Test
+  public void namingUnknownUserReplacesNegativeEntry() {
+    UserNameCache cache =
+      new UserNameCache(100, LONG_TTL_MILLIS, LONG_TTL_MILLIS);
+    cache.put("1", "");
+    cache.put("1", "Alice");
+
+    Assert.assertEquals("Alice", cache.get("1"));
+    cache.invalidate("1");
+    Assert.assertNull(cache.get("1"));
+  }
+
+  @Test
+  public void negativeEntriesExpireSeparately() {
+    UserNameCache cache = new UserNameCache(100, LONG_TTL_MILLIS, 0);
+    cache.put("1", "Alice");
+    cache.put("2", "");
+
+    Assert.assertEquals("Alice", cache.get("1"));
+    Assert.assertNull(cache.get("2"));
+  }
+}
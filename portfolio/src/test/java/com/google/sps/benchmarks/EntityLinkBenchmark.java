@@ -0,0 +1,99 @@
+package com.google.sps.benchmarks;
+
+import com.google.cloud.language.v1.Entity;
+import com.google.cloud.language.v1.EntityMention;
+import com.google.cloud.language.v1.TextSpan;
+import com.google.sps.functionality.SentimentAnalyzer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+  * Compares rendering entity links from mention offsets in a single pass
+  * against the previous implementation, which inserted each link into the
+  * text after searching it for the entity's name. Comments are long and
+  * dense with linked entities. Run from the portfolio directory with
+  * `mvn test-compile dependency:build-classpath
+  * -Dmdep.outputFile=target/classpath.txt` followed by
+  * `java -cp target/classes:target/test-classes:$(cat target/classpath.txt)
+  * com.google.sps.benchmarks.EntityLinkBenchmark`.
+  */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EntityLinkBenchmark {
+
+  /** The number of distinct linked entities in the comment. */
+  @Param({"10", "100", "500"})
+  public int entityCount;
+
+  private String text;
+  private List<Entity> entities;
+
+  @Setup
+  public void setUp() {
+    StringBuilder textBuilder = new StringBuilder();
+    entities = new ArrayList<Entity>();
+    for (int i = 0; i < entityCount; i++) {
+      String name = "Entity" + i;
+      textBuilder.append("Some words about how much I like ");
+      int offset = textBuilder.length();
+      textBuilder.append(name).append(", which is great. ");
+      entities.add(Entity.newBuilder()
+        .setName(name)
+        .putMetadata("wikipedia_url", "https://en.wikipedia.org/wiki/" + name)
+        .addMentions(EntityMention.newBuilder().setText(TextSpan.newBuilder()
+          .setContent(name)
+          .setBeginOffset(offset)))
+        .build());
+    }
+    text = textBuilder.toString();
+  }
+
+  @Benchmark
+  public String singlePass() {
+    return SentimentAnalyzer.getHTMLWithNamedEntityLinks(text, entities);
+  }
+
+  @Benchmark
+  public String insertPerEntity() {
+    StringBuilder textWithLinks = new StringBuilder(text);
+    entities.forEach(entity -> insertLink(entity, textWithLinks));
+    return textWithLinks.toString();
+  }
+
+  /** The previous implementation of inserting a single entity's link. */
+  private static void insertLink(Entity entity, StringBuilder textWithLinks) {
+    if (entity.containsMetadata("wikipedia_url")) {
+        textWithLinks.insert(
+          textWithLinks.indexOf(entity.getName()) + entity.getName().length(),
+            "</a>");
+        textWithLinks.insert(textWithLinks.indexOf(entity.getName()),
+          "<a target=\"_blank\" href=\""+
+            entity.getMetadataMap().get("wikipedia_url")+"\">");
+    }
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder()
+      .include(EntityLinkBenchmark.class.getSimpleName())
+      .build()).run();
+  }
+}